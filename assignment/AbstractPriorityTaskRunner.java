@@ -1,22 +1,73 @@
 package assignments;
 
 
-import java.util.PriorityQueue;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class AbstractPriorityTaskRunner {
 
-    protected final PriorityQueue<Task> taskQueue;
+    protected final TaskQueue taskQueue;
     protected final Thread [] taskThreads;
+    private final AtomicLong sequence = new AtomicLong();
 
     /**
      * Constructor
      * @param nThreads number of threads to be created
      */
     protected AbstractPriorityTaskRunner(int nThreads) {
-        taskQueue = new PriorityQueue<>();
+        this(nThreads, new HeapTaskQueue());
+    }
+
+    /**
+     * Constructor
+     * @param nThreads number of threads to be created
+     * @param taskQueue queue implementation holding the scheduled tasks
+     */
+    protected AbstractPriorityTaskRunner(int nThreads, TaskQueue taskQueue) {
+        this.taskQueue = taskQueue;
         taskThreads = new Thread[nThreads];
     }
 
+    /**
+     * Wrap a task into a queue entry, entries get increasing sequence numbers.
+     * The entry of a DeadlineTask carries its deadline.
+     * @param t task to be wrapped
+     * @param listener listener bound to this entry, may be null
+     * @return new entry
+     */
+    protected TaskEntry newEntry(Task t, TaskNotificationListener listener) {
+        return newEntry(t, listener, t.getPriority());
+    }
+
+    /**
+     * Wrap a task into a queue entry queued with another priority than the task's own
+     * @param t task to be wrapped
+     * @param listener listener bound to this entry, may be null
+     * @param priority priority of the entry
+     * @return new entry
+     */
+    protected TaskEntry newEntry(Task t, TaskNotificationListener listener, int priority) {
+        TaskEntry entry = recycledEntry();
+        if (entry == null) {
+            entry = new TaskEntry(t, listener, sequence.getAndIncrement(), priority);
+        } else {
+            entry.reset(t, listener, sequence.getAndIncrement(), priority);
+        }
+        if (t instanceof DeadlineTask) {
+            entry.hasDeadline = true;
+            entry.deadlineNanos = ((DeadlineTask) t).getDeadlineNanos();
+        }
+        return entry;
+    }
+
+    /**
+     * @return an entry whose task has run, to be reused by newEntry, or null to allocate one
+     */
+    protected TaskEntry recycledEntry() {
+        return null;
+    }
+
     /**
      * Set thread-safe runnable instance to be used by all threads
      * NOTE : Call this in your constructor of sub class
@@ -41,6 +92,22 @@ public abstract class AbstractPriorityTaskRunner {
      */
     public abstract void scheduleTask(Task t, TaskNotificationListener listener);
 
+    /**
+     * Schedule a batch of tasks sharing one listener, equivalent to calling scheduleTask for each of them
+     * @param tasks tasks to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     */
+    public abstract void scheduleTasks(Collection<? extends Task> tasks, TaskNotificationListener listener);
+
+
+    /**
+     * Schedule task like scheduleTask and return a future completed once the task has run
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @return future completed with the task, or exceptionally with the exception thrown by its run() method
+     */
+    public abstract CompletableFuture<Task> submit(Task t, TaskNotificationListener listener);
+
 
     /**
      * Execute the task using the task thread but wait for it to terminate
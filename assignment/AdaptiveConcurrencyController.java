@@ -0,0 +1,141 @@
+package assignments;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resizes the task thread pool of a runner from its metrics once per interval. The number of
+ * threads needed to keep up follows Little's law, arrival rate times mean service time, plus
+ * the threads needed to drain the current backlog within one interval. Tasks that keep their
+ * threads on the CPU are capped at the number of processors scaled by how much of their run
+ * time is spent on the CPU, so blocking tasks may use more threads than there are cores.
+ * The pool grows to the estimate at once but shrinks by at most a quarter per interval, and
+ * does not shrink while tasks wait longer in the queue than they run.
+ */
+final class AdaptiveConcurrencyController implements Runnable {
+
+    private static final double HEADROOM = 1.25;
+    private static final double MIN_CPU_SHARE = 0.05;
+
+    private final PriorityTaskRunner runner;
+    private final int minThreads;
+    private final int maxThreads;
+    private final long intervalNanos;
+    private final Thread thread;
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private final Map<Thread, Long> cpuTimes = new HashMap<>();
+    private MetricsSnapshot previous;
+    private double serviceNanos;// mean run time of the last interval with completed tasks
+    private volatile boolean stopped;
+
+    AdaptiveConcurrencyController(PriorityTaskRunner runner, int minThreads, int maxThreads, long intervalNanos) {
+        if (minThreads < 1 || maxThreads < minThreads) {
+            throw new IllegalArgumentException("need 1 <= minThreads <= maxThreads");
+        }
+        if (intervalNanos <= 0) {
+            throw new IllegalArgumentException("interval must be positive");
+        }
+        this.runner = runner;
+        this.minThreads = minThreads;
+        this.maxThreads = maxThreads;
+        this.intervalNanos = intervalNanos;
+        thread = new Thread(this, "Task pool controller");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        previous = runner.metricsSnapshot();
+        thread.start();
+    }
+
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (! stopped) {
+            try {
+                Thread.sleep(intervalNanos / 1_000_000, (int) (intervalNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                continue;// stopped
+            }
+            runner.setThreadCount(targetThreads());
+        }
+    }
+
+    /**
+     * @return number of task threads for the next interval
+     */
+    int targetThreads() {
+        MetricsSnapshot current = runner.metricsSnapshot();
+        long elapsed = current.getTimestampNanos() - previous.getTimestampNanos();
+        long completed = current.getDequeued() - previous.getDequeued();
+        long busy = current.getBusyNanos() - previous.getBusyNanos();
+        long arrived = current.getEnqueued() - previous.getEnqueued();
+        double waited = totalWait(current) - totalWait(previous);
+        previous = current;
+        int threads = runner.getThreadCount();
+        int depth = current.getQueueDepth();
+        if (completed > 0) {
+            serviceNanos = (double) busy / completed;
+        } else if (depth > 0) {
+            return clamp(threads * 2);// work is stuck behind running tasks, no estimate yet
+        }
+        double needed = (double) arrived / elapsed * serviceNanos + depth * serviceNanos / elapsed;
+        double cpuShare = cpuShare(busy);
+        int target = (int) Math.ceil(Math.min(needed * HEADROOM,
+                Runtime.getRuntime().availableProcessors() / Math.max(cpuShare, MIN_CPU_SHARE)));
+        if (target < threads) {
+            if (completed > 0 && waited / completed > serviceNanos) {
+                return threads;// still queueing more than running
+            }
+            target = Math.max(target, threads - Math.max(threads / 4, 1));
+        }
+        return clamp(target);
+    }
+
+    private int clamp(int threads) {
+        return Math.min(Math.max(threads, minThreads), maxThreads);
+    }
+
+    private static double totalWait(MetricsSnapshot snapshot) {
+        double total = 0;
+        for (int band = 0; band < snapshot.getBandCount(); band++) {
+            HistogramSnapshot h = snapshot.getWaitTime(band);
+            total += h.getMean() * h.getCount();
+        }
+        return total;
+    }
+
+    /**
+     * @param busyNanos time the task threads spent running tasks during the interval
+     * @return share of that time spent on the CPU, 1 if thread CPU time is not available
+     */
+    private double cpuShare(long busyNanos) {
+        if (! threadBean.isThreadCpuTimeSupported() || busyNanos <= 0) {
+            return 1;
+        }
+        long cpu = 0;
+        Map<Thread, Long> last = new HashMap<>(cpuTimes);
+        cpuTimes.clear();
+        for (Thread t : runner.workerThreads()) {
+            long time = threadBean.getThreadCpuTime(t.getId());
+            if (time < 0) {
+                continue;// terminated meanwhile
+            }
+            cpuTimes.put(t, time);
+            Long before = last.get(t);
+            cpu += time - (before != null ? before : 0);
+        }
+        return Math.min((double) cpu / busyNanos, 1);
+    }
+}
@@ -0,0 +1,22 @@
+package assignments;
+
+/**
+ * What a bounded runner does with a new task when it already holds as many queued tasks as
+ * its capacity, see PriorityTaskRunner.setCapacity().
+ * A rejected task is passed to the RejectedTaskHandler if there is one, otherwise scheduleTask
+ * throws RejectedExecutionException and submit returns a future failed with it.
+ */
+public enum AdmissionPolicy {
+    // wait until a task thread takes a task; task threads themselves are rejected instead of waiting
+    BLOCK,
+    // reject the new task immediately
+    FAIL_FAST,
+    // reject the least urgent of the queued tasks and the new task; every admission at capacity
+    // calls TaskQueue.pollLast() under the runner lock, which costs O(n) on HeapTaskQueue,
+    // DeadlineTaskQueue and PrimitiveHeapTaskQueue, O(log n) on SkipListTaskQueue and
+    // O(levels / 64) on BucketTaskQueue, so pick one of the latter for large capacities
+    EVICT_LOWEST,
+    // shed queued tasks whose deadline has passed, then wait for room until the new task's own
+    // deadline; tasks whose deadline passes while queued are shed instead of run
+    SHED_BY_DEADLINE
+}
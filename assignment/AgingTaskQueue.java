@@ -0,0 +1,244 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Bucket queue for a bounded range of integer priorities in which waiting tasks age: every
+ * aging interval all queued tasks move one priority level up. Levels are kept in a ring, so a
+ * promotion splices the top level in front of the second one and rotates the ring instead of
+ * touching any entry. A task reaches the top level at most maxPromotionDelay() after it was
+ * queued and from there runs in FIFO order, so no task starves under steady urgent traffic.
+ * Lower priority values run first as in SampleTask. Task.compareTo is not consulted.
+ * Not thread-safe, the runner guards it with its lock; only size() may be read without it.
+ */
+public class AgingTaskQueue implements TaskQueue {
+
+    private final int minPriority;
+    private final int levels;
+    private final long agingIntervalNanos;
+    private final TaskEntry[] heads;// indexed by slot, level 0 is at slot base
+    private final TaskEntry[] tails;
+    private final long[] nonEmpty;// by slot
+    private int base;
+    private long epochStart = System.nanoTime();
+    private volatile int size;// only written holding the runner lock
+
+    /**
+     * @param minPriority lowest accepted priority value (runs first)
+     * @param maxPriority highest accepted priority value (runs last)
+     * @param agingInterval time after which a waiting task moves one level up
+     * @param unit unit of agingInterval
+     */
+    public AgingTaskQueue(int minPriority, int maxPriority, long agingInterval, TimeUnit unit) {
+        if (maxPriority < minPriority) {
+            throw new IllegalArgumentException("maxPriority < minPriority");
+        }
+        if (agingInterval <= 0) {
+            throw new IllegalArgumentException("agingInterval must be positive");
+        }
+        this.minPriority = minPriority;
+        levels = maxPriority - minPriority + 1;
+        agingIntervalNanos = unit.toNanos(agingInterval);
+        heads = new TaskEntry[levels];
+        tails = new TaskEntry[levels];
+        nonEmpty = new long[(levels + 63) >>> 6];
+    }
+
+    /**
+     * @return longest time a task can wait before it is on the top level
+     */
+    public long maxPromotionDelay(TimeUnit unit) {
+        return unit.convert((levels - 1) * agingIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void add(TaskEntry e) {
+        int level = e.getPriority() - minPriority;
+        if (level < 0 || level >= levels) {
+            throw new IllegalArgumentException("priority " + e.getPriority() + " out of range ["
+                    + minPriority + ", " + (minPriority + levels - 1) + "]");
+        }
+        age();
+        int slot = slot(level);
+        e.next = null;
+        if (tails[slot] == null) {
+            heads[slot] = e;
+            nonEmpty[slot >>> 6] |= 1L << slot;
+        } else {
+            tails[slot].next = e;
+        }
+        tails[slot] = e;
+        size++;
+    }
+
+    @Override
+    public TaskEntry poll() {
+        age();
+        int slot = firstSlot();
+        return slot < 0 ? null : pollSlot(slot);
+    }
+
+    @Override
+    public TaskEntry peek() {
+        age();
+        int slot = firstSlot();
+        return slot < 0 ? null : heads[slot];
+    }
+
+    /**
+     * Removes the oldest entry of the least urgent non-empty level
+     */
+    @Override
+    public TaskEntry pollLast() {
+        age();
+        int slot = lastSlot();
+        return slot < 0 ? null : pollSlot(slot);
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        for (int slot = 0; slot < levels; slot++) {
+            TaskEntry prev = null;
+            TaskEntry e = heads[slot];
+            while (e != null) {
+                TaskEntry next = e.next;
+                if (filter.test(e)) {
+                    if (prev == null) {
+                        heads[slot] = next;
+                    } else {
+                        prev.next = next;
+                    }
+                    if (next == null) {
+                        tails[slot] = prev;
+                    }
+                    e.next = null;
+                    removed.add(e);
+                } else {
+                    prev = e;
+                }
+                e = next;
+            }
+            if (heads[slot] == null) {
+                nonEmpty[slot >>> 6] &= ~(1L << slot);
+            }
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    private int slot(int level) {
+        int slot = base + level;
+        return slot >= levels ? slot - levels : slot;
+    }
+
+    private TaskEntry pollSlot(int slot) {
+        TaskEntry e = heads[slot];
+        heads[slot] = e.next;
+        if (e.next == null) {
+            tails[slot] = null;
+            nonEmpty[slot >>> 6] &= ~(1L << slot);
+        }
+        e.next = null;
+        size--;
+        return e;
+    }
+
+    /**
+     * Apply the promotions of all aging intervals that have passed
+     */
+    private void age() {
+        long epochs = (System.nanoTime() - epochStart) / agingIntervalNanos;
+        if (epochs <= 0) {
+            return;
+        }
+        epochStart += epochs * agingIntervalNanos;
+        // after levels - 1 promotions every task is on the top level
+        for (long i = Math.min(epochs, levels - 1); i > 0; i--) {
+            promote();
+        }
+    }
+
+    /**
+     * Move every level one up: the top level goes in front of the second level, whose slot
+     * becomes the new top, and the old top slot becomes the empty last level.
+     */
+    private void promote() {
+        int top = base;
+        int second = slot(1);
+        if (heads[top] != null) {
+            if (heads[second] == null) {
+                heads[second] = heads[top];
+                tails[second] = tails[top];
+                nonEmpty[second >>> 6] |= 1L << second;
+            } else {
+                tails[top].next = heads[second];
+                heads[second] = heads[top];
+            }
+            heads[top] = null;
+            tails[top] = null;
+            nonEmpty[top >>> 6] &= ~(1L << top);
+        }
+        base = second;
+    }
+
+    private int firstSlot() {
+        int slot = nextSetBit(base, levels);
+        return slot >= 0 ? slot : nextSetBit(0, base);
+    }
+
+    private int lastSlot() {
+        int slot = prevSetBit(base - 1, 0);
+        return slot >= 0 ? slot : prevSetBit(levels - 1, base);
+    }
+
+    /**
+     * @return lowest set slot in [from, to) or -1
+     */
+    private int nextSetBit(int from, int to) {
+        for (int w = from >>> 6; (w << 6) < to; w++) {
+            long bits = nonEmpty[w];
+            if (w == from >>> 6) {
+                bits &= -1L << from;
+            }
+            if (bits != 0) {
+                int slot = (w << 6) + Long.numberOfTrailingZeros(bits);
+                return slot < to ? slot : -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return highest set slot in [to, from] or -1
+     */
+    private int prevSetBit(int from, int to) {
+        if (from < to) {
+            return -1;
+        }
+        for (int w = from >>> 6; w >= 0 && ((w << 6) + 63) >= to; w--) {
+            long bits = nonEmpty[w];
+            if (w == from >>> 6) {
+                bits &= -1L >>> (63 - (from & 63));
+            }
+            if (bits != 0) {
+                int slot = (w << 6) + 63 - Long.numberOfLeadingZeros(bits);
+                return slot >= to ? slot : -1;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,12 @@
+package assignments;
+
+import java.util.List;
+
+/**
+ * Listener that takes events in batches when the runner delivers notifications asynchronously.
+ * With synchronous delivery only the TaskNotificationListener methods are called.
+ */
+public interface BatchTaskNotificationListener extends TaskNotificationListener {
+    // called on the notification thread with consecutive events for this listener, in order
+    void onTaskEvents(List<TaskEvent> events);
+}
@@ -0,0 +1,153 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Task queue for a bounded range of integer priorities. Every priority has its own FIFO
+ * bucket and a bitmap marks the non-empty buckets, so add and poll do not depend on the
+ * number of queued tasks. Lower priority values run first as in SampleTask, tasks of equal
+ * priority run in submission order. Task.compareTo is not consulted.
+ * Not thread-safe, the runner guards it with its lock; only size() may be read without it.
+ */
+public class BucketTaskQueue implements TaskQueue {
+
+    private final int minPriority;
+    private final TaskEntry[] heads;
+    private final TaskEntry[] tails;
+    private final long[] nonEmpty;
+    private volatile int size;// only written holding the runner lock
+
+    /**
+     * @param minPriority lowest accepted priority value (runs first)
+     * @param maxPriority highest accepted priority value (runs last)
+     */
+    public BucketTaskQueue(int minPriority, int maxPriority) {
+        if (maxPriority < minPriority) {
+            throw new IllegalArgumentException("maxPriority < minPriority");
+        }
+        int levels = maxPriority - minPriority + 1;
+        this.minPriority = minPriority;
+        heads = new TaskEntry[levels];
+        tails = new TaskEntry[levels];
+        nonEmpty = new long[(levels + 63) >>> 6];
+    }
+
+    @Override
+    public void add(TaskEntry e) {
+        int level = e.getPriority() - minPriority;
+        if (level < 0 || level >= heads.length) {
+            throw new IllegalArgumentException("priority " + e.getPriority() + " out of range ["
+                    + minPriority + ", " + (minPriority + heads.length - 1) + "]");
+        }
+        e.next = null;
+        if (tails[level] == null) {
+            heads[level] = e;
+            nonEmpty[level >>> 6] |= 1L << level;
+        } else {
+            tails[level].next = e;
+        }
+        tails[level] = e;
+        size++;
+    }
+
+    @Override
+    public TaskEntry poll() {
+        int level = firstLevel();
+        return level < 0 ? null : pollLevel(level);
+    }
+
+    /**
+     * Removes the oldest entry of the least urgent non-empty priority
+     */
+    @Override
+    public TaskEntry pollLast() {
+        int level = lastLevel();
+        return level < 0 ? null : pollLevel(level);
+    }
+
+    private TaskEntry pollLevel(int level) {
+        TaskEntry e = heads[level];
+        heads[level] = e.next;
+        if (e.next == null) {
+            tails[level] = null;
+            nonEmpty[level >>> 6] &= ~(1L << level);
+        }
+        e.next = null;
+        size--;
+        return e;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        int level = firstLevel();
+        return level < 0 ? null : heads[level];
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        for (int level = 0; level < heads.length; level++) {
+            TaskEntry prev = null;
+            TaskEntry e = heads[level];
+            while (e != null) {
+                TaskEntry next = e.next;
+                if (filter.test(e)) {
+                    if (prev == null) {
+                        heads[level] = next;
+                    } else {
+                        prev.next = next;
+                    }
+                    if (next == null) {
+                        tails[level] = prev;
+                    }
+                    e.next = null;
+                    removed.add(e);
+                } else {
+                    prev = e;
+                }
+                e = next;
+            }
+            if (heads[level] == null) {
+                nonEmpty[level >>> 6] &= ~(1L << level);
+            }
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * @return index of the last non-empty bucket or -1
+     */
+    private int lastLevel() {
+        for (int w = nonEmpty.length - 1; w >= 0; w--) {
+            if (nonEmpty[w] != 0) {
+                return (w << 6) + 63 - Long.numberOfLeadingZeros(nonEmpty[w]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return index of the first non-empty bucket or -1
+     */
+    private int firstLevel() {
+        for (int w = 0; w < nonEmpty.length; w++) {
+            if (nonEmpty[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(nonEmpty[w]);
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+}
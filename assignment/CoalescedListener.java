@@ -0,0 +1,35 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listener of a queued task that further copies of the same task have been merged into,
+ * forwarding every event to the listeners of all copies. Listeners are only added while the
+ * task is queued, holding the lock of its TaskHandle, so a task thread that has taken the task
+ * sees them all.
+ */
+class CoalescedListener implements TaskNotificationListener {
+
+    private final List<TaskNotificationListener> listeners = new ArrayList<>(2);
+
+    void add(TaskNotificationListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    @Override
+    public void onTaskCommence(Task t) {
+        for (TaskNotificationListener l : listeners) {
+            l.onTaskCommence(t);
+        }
+    }
+
+    @Override
+    public void onTaskCompletion(Task t) {
+        for (TaskNotificationListener l : listeners) {
+            l.onTaskCompletion(t);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package assignments;
+
+/**
+ * Task with a deadline. Runners take the deadline into account when the task is scheduled,
+ * see DeadlineTaskQueue.
+ */
+public interface DeadlineTask extends Task {
+
+    /**
+     * @return time by which the task should have completed, in System.nanoTime() terms
+     */
+    long getDeadlineNanos();
+}
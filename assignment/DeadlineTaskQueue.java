@@ -0,0 +1,124 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Earliest-deadline-first task queue. Entries with a deadline, from a DeadlineTask or
+ * scheduleTaskWithDeadline, run in deadline order with the usual entry ordering as tie-breaker
+ * and ahead of entries without a deadline. Expired entries are handled at dequeue time
+ * according to the ExpiredTaskPolicy. Not thread-safe, the runner guards it with its lock;
+ * only size() may be read without it.
+ */
+public class DeadlineTaskQueue implements TaskQueue {
+
+    private static final Comparator<TaskEntry> EARLIEST_DEADLINE_FIRST = (a, b) -> {
+        if (a.hasDeadline != b.hasDeadline) {
+            return a.hasDeadline ? -1 : 1;
+        }
+        if (a.hasDeadline && a.deadlineNanos != b.deadlineNanos) {
+            return a.deadlineNanos - b.deadlineNanos < 0 ? -1 : 1;// nanoTime may wrap
+        }
+        return a.compareTo(b);
+    };
+
+    private final ExpiredTaskPolicy expiredTaskPolicy;
+    private final PriorityQueue<TaskEntry> heap = new PriorityQueue<>(EARLIEST_DEADLINE_FIRST);
+    private final PriorityQueue<TaskEntry> expired = new PriorityQueue<>();// only used by DEPRIORITIZE
+    private volatile int size;
+
+    /**
+     * @param expiredTaskPolicy what to do with entries whose deadline has passed
+     */
+    public DeadlineTaskQueue(ExpiredTaskPolicy expiredTaskPolicy) {
+        this.expiredTaskPolicy = expiredTaskPolicy;
+    }
+
+    public ExpiredTaskPolicy getExpiredTaskPolicy() {
+        return expiredTaskPolicy;
+    }
+
+    @Override
+    public void add(TaskEntry e) {
+        heap.add(e);
+        size++;
+    }
+
+    @Override
+    public TaskEntry poll() {
+        demoteExpired();
+        TaskEntry e = heap.poll();
+        if (e == null) {
+            e = expired.poll();
+        }
+        if (e != null) {
+            size--;
+        }
+        return e;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        demoteExpired();
+        TaskEntry e = heap.peek();
+        return e != null ? e : expired.peek();
+    }
+
+    /**
+     * O(n) like HeapTaskQueue.pollLast(), prefers demoted entries since they run last
+     */
+    @Override
+    public TaskEntry pollLast() {
+        PriorityQueue<TaskEntry> from = expired.isEmpty() ? heap : expired;
+        Comparator<TaskEntry> order = from == heap ? EARLIEST_DEADLINE_FIRST : Comparator.naturalOrder();
+        TaskEntry last = null;
+        for (TaskEntry e : from) {
+            if (last == null || order.compare(e, last) > 0) {
+                last = e;
+            }
+        }
+        if (last != null) {
+            from.remove(last);
+            size--;
+        }
+        return last;
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        heap.removeIf(e -> filter.test(e) && removed.add(e));
+        expired.removeIf(e -> filter.test(e) && removed.add(e));
+        size -= removed.size();
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Move expired entries from the head of the deadline heap to the heap of demoted entries.
+     * Expired entries sort first, so only the head has to be checked.
+     */
+    private void demoteExpired() {
+        if (expiredTaskPolicy != ExpiredTaskPolicy.DEPRIORITIZE || heap.isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        TaskEntry head = heap.peek();
+        while (head != null && head.isExpired(now)) {
+            expired.add(heap.poll());
+            head = heap.peek();
+        }
+    }
+}
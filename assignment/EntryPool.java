@@ -0,0 +1,38 @@
+package assignments;
+
+/**
+ * Free list of queue entries recycled after their task has run, so scheduling and running a
+ * task allocate no entry in the steady state. Entries released while the pool is full are
+ * left to the garbage collector. Guarded by its own monitor.
+ */
+class EntryPool {
+
+    private final TaskEntry[] free;
+    private int size;
+
+    /**
+     * @param capacity maximum number of free entries kept
+     */
+    EntryPool(int capacity) {
+        free = new TaskEntry[capacity];
+    }
+
+    /**
+     * @return a free entry, or null if there is none
+     */
+    synchronized TaskEntry acquire() {
+        if (size == 0) {
+            return null;
+        }
+        TaskEntry e = free[--size];
+        free[size] = null;
+        return e;
+    }
+
+    synchronized void release(TaskEntry e) {
+        if (size < free.length) {
+            e.clear();
+            free[size++] = e;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package assignments;
+
+/**
+ * What a DeadlineTaskQueue does with a task whose deadline has passed while it was queued.
+ */
+public enum ExpiredTaskPolicy {
+    // run it in deadline order like any other task
+    RUN,
+    // drop it when a task thread takes it; it is passed to the RejectedTaskHandler of the
+    // runner if there is one and its future fails with RejectedExecutionException
+    DROP,
+    // run it after all tasks that have not expired, in priority order
+    DEPRIORITIZE
+}
@@ -0,0 +1,305 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Task queue sharing the task threads between tenants by weight. Every tenant has its own
+ * priority queue; tenants with queued tasks take turns in a deficit round robin, where a turn
+ * hands out as many tasks as the tenant's weight, so a tenant flooding the runner only
+ * lengthens its own queue. Within a tenant tasks run in priority order. Picking the next
+ * tenant is O(1). Tasks scheduled without a tenant, see
+ * PriorityTaskRunner.scheduleTaskForTenant, share the null tenant. A tenant whose queue drains
+ * leaves the round robin and gives up its queue but keeps its counters; it is forgotten once it
+ * has been idle for the idle timeout, so short-lived tenants do not accumulate. Weights set
+ * with setWeight() are kept regardless.
+ * Not thread-safe, the runner guards it with its lock; size(), setWeight() and
+ * tenantSnapshots() may be called without it.
+ */
+public class FairShareTaskQueue implements TaskQueue {
+
+    private static final class Tenant {
+        final Object key;
+        HeapTaskQueue queue;// null while idle
+        volatile int weight;
+        int credit;// tasks left in the current turn
+        Tenant next;// ring of tenants with queued tasks
+        boolean active;
+        long idleSince;// System.nanoTime() when the queue drained
+        volatile int depth;
+        volatile long enqueued;
+        volatile long dequeued;
+
+        Tenant(Object key, int weight) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+    private final Map<Object, Tenant> tenants = new ConcurrentHashMap<>();// queued or recently idle
+    private final Map<Object, Integer> weights = new ConcurrentHashMap<>();// set by setWeight()
+    private final Tenant nullTenant;
+    private final int defaultWeight;
+    private final long idleTimeoutNanos;
+    private long lastSweep = System.nanoTime();
+    private Tenant current;// tenant whose turn it is, null if no tenant has queued tasks
+    private Tenant last;// tenant before current in the ring
+    private volatile int size;// only written holding the runner lock
+
+    /**
+     * Forget tenants idle for a minute
+     * @param defaultWeight weight of the tenants setWeight() has not been called for
+     */
+    public FairShareTaskQueue(int defaultWeight) {
+        this(defaultWeight, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param defaultWeight weight of the tenants setWeight() has not been called for
+     * @param idleTimeout time a tenant without queued tasks keeps its counters
+     * @param unit unit of idleTimeout
+     */
+    public FairShareTaskQueue(int defaultWeight, long idleTimeout, TimeUnit unit) {
+        if (defaultWeight < 1) {
+            throw new IllegalArgumentException("defaultWeight must be positive");
+        }
+        if (idleTimeout <= 0) {
+            throw new IllegalArgumentException("idle timeout must be positive");
+        }
+        this.defaultWeight = defaultWeight;
+        idleTimeoutNanos = unit.toNanos(idleTimeout);
+        nullTenant = new Tenant(null, defaultWeight);
+    }
+
+    /**
+     * Set the share of a tenant, a tenant with weight 2 gets twice as many task starts as one
+     * with weight 1 while both have tasks queued. Takes effect from the tenant's next turn.
+     * The weight is kept while the tenant has no tasks queued.
+     * @param tenant tenant, null for tasks scheduled without one
+     * @param weight number of tasks per turn
+     */
+    public void setWeight(Object tenant, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("weight must be positive");
+        }
+        if (tenant == null) {
+            nullTenant.weight = weight;
+            return;
+        }
+        weights.put(tenant, weight);
+        // a tenant created concurrently has either read the new weight or gets it here
+        tenants.computeIfPresent(tenant, (k, t) -> {
+            t.weight = weight;
+            return t;
+        });
+    }
+
+    /**
+     * @return depth and counters of every tenant with queued tasks or not idle long enough to be
+     * forgotten, and of the null tenant once it has had a task queued
+     */
+    public List<TenantSnapshot> tenantSnapshots() {
+        List<TenantSnapshot> snapshots = new ArrayList<>(tenants.size() + 1);
+        if (nullTenant.enqueued > 0) {
+            snapshots.add(snapshot(nullTenant));
+        }
+        for (Tenant t : tenants.values()) {
+            snapshots.add(snapshot(t));
+        }
+        return snapshots;
+    }
+
+    private static TenantSnapshot snapshot(Tenant t) {
+        return new TenantSnapshot(t.key, t.weight, t.depth, t.enqueued, t.dequeued);
+    }
+
+    private Tenant tenant(Object key) {
+        if (key == null) {
+            return nullTenant;
+        }
+        Tenant t = tenants.get(key);
+        return t != null ? t : tenants.computeIfAbsent(key, k -> new Tenant(k, weights.getOrDefault(k, defaultWeight)));
+    }
+
+    /**
+     * Release the queue of a tenant whose queue has drained, its counters stay until it has been
+     * idle for the idle timeout
+     */
+    private void idle(Tenant t) {
+        t.queue = null;
+        t.idleSince = System.nanoTime();
+    }
+
+    /**
+     * Forget the tenants idle for longer than the idle timeout, at most once per idle timeout
+     * @return true if tenants may have been forgotten
+     */
+    private boolean sweep() {
+        long now = System.nanoTime();
+        if (now - lastSweep < idleTimeoutNanos) {
+            return false;
+        }
+        lastSweep = now;
+        tenants.values().removeIf(t -> ! t.active && now - t.idleSince >= idleTimeoutNanos);
+        return true;
+    }
+
+    @Override
+    public void add(TaskEntry e) {
+        Tenant t = tenant(e.tenant);
+        if (! t.active) {
+            if (sweep()) {
+                t = tenant(e.tenant);// t may have been forgotten, it comes back with fresh counters
+            }
+            activate(t);
+        }
+        t.queue.add(e);
+        t.depth++;
+        t.enqueued++;
+        size++;
+    }
+
+    /**
+     * Append a tenant to the ring, it gets its first turn after the tenants already queued
+     */
+    private void activate(Tenant t) {
+        t.queue = new HeapTaskQueue();
+        t.active = true;
+        t.credit = 0;
+        if (current == null) {
+            t.next = t;
+            current = t;
+        } else {
+            t.next = current;
+            last.next = t;
+        }
+        last = t;
+    }
+
+    @Override
+    public TaskEntry poll() {
+        Tenant t = current;
+        if (t == null) {
+            return null;
+        }
+        if (t.credit == 0) {
+            t.credit = t.weight;// start of its turn
+        }
+        TaskEntry e = t.queue.poll();
+        t.credit--;
+        t.depth--;
+        t.dequeued++;
+        size--;
+        if (t.queue.isEmpty()) {
+            deactivate(t);
+            idle(t);
+        } else if (t.credit == 0) {
+            last = t;// turn over
+            current = t.next;
+        }
+        return e;
+    }
+
+    /**
+     * Remove the current tenant from the ring
+     */
+    private void deactivate(Tenant t) {
+        t.active = false;
+        t.credit = 0;
+        if (t.next == t) {
+            current = null;
+            last = null;
+        } else {
+            last.next = t.next;
+            current = t.next;
+        }
+        t.next = null;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        return current == null ? null : current.queue.peek();
+    }
+
+    /**
+     * Removes the least urgent entry of the tenant with the most queued tasks per weight
+     */
+    @Override
+    public TaskEntry pollLast() {
+        Tenant victim = null;
+        for (Tenant t = current; t != null; t = t.next) {
+            if (victim == null || (long) t.depth * victim.weight > (long) victim.depth * t.weight) {
+                victim = t;
+            }
+            if (t.next == current) {
+                break;
+            }
+        }
+        if (victim == null) {
+            return null;
+        }
+        TaskEntry e = victim.queue.pollLast();
+        victim.depth--;
+        size--;
+        if (victim.queue.isEmpty()) {
+            unlink(victim);
+            idle(victim);
+        }
+        return e;
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<Tenant> queued = new ArrayList<>();
+        for (Tenant t = current; t != null && (queued.isEmpty() || t != current); t = t.next) {
+            queued.add(t);
+        }
+        List<TaskEntry> removed = new ArrayList<>();
+        for (Tenant t : queued) {
+            int n = removed.size();
+            removed.addAll(t.queue.removeIf(filter));
+            t.depth -= removed.size() - n;
+            if (t.queue.isEmpty()) {
+                unlink(t);
+                idle(t);
+            }
+        }
+        size -= removed.size();
+        return removed;
+    }
+
+    /**
+     * Remove any tenant from the ring, O(number of queued tenants)
+     */
+    private void unlink(Tenant t) {
+        if (t == current) {
+            deactivate(t);
+            return;
+        }
+        Tenant prev = current;
+        while (prev.next != t) {
+            prev = prev.next;
+        }
+        prev.next = t.next;
+        if (last == t) {
+            last = prev;
+        }
+        t.active = false;
+        t.credit = 0;
+        t.next = null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+}
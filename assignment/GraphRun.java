@@ -0,0 +1,89 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * One run of a TaskGraph. Each task keeps a counter of the parents it still waits for; the
+ * task thread completing a parent decrements the counters of its children and queues the
+ * ones reaching zero together.
+ */
+class GraphRun {
+
+    private final PriorityTaskRunner runner;
+    private final TaskGraph.Plan plan;
+    private final TaskNotificationListener listener;
+    private final AtomicIntegerArray pending;
+    private final AtomicInteger remaining;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    GraphRun(PriorityTaskRunner runner, TaskGraph.Plan plan, TaskNotificationListener listener) {
+        this.runner = runner;
+        this.plan = plan;
+        this.listener = listener;
+        pending = new AtomicIntegerArray(plan.parents);
+        remaining = new AtomicInteger(plan.tasks.length);
+    }
+
+    /**
+     * Queue the tasks without dependencies
+     * @return future completed once all tasks have run
+     */
+    CompletableFuture<Void> start() {
+        if (plan.tasks.length == 0) {
+            done.complete(null);
+        } else {
+            List<TaskEntry> ready = new ArrayList<>(plan.roots.length);
+            for (int i : plan.roots) {
+                ready.add(entry(i));
+            }
+            runner.admitAndSchedule(ready);
+        }
+        return done;
+    }
+
+    private TaskEntry entry(int i) {
+        TaskEntry entry = runner.newEntry(plan.tasks[i], listener, plan.priority[i]);
+        CompletableFuture<Task> future = new CompletableFuture<>();
+        future.whenComplete((t, failure) -> completed(i, failure));
+        entry.future = future;
+        return entry;
+    }
+
+    /**
+     * Called on the task thread that ran task i
+     */
+    private void completed(int i, Throwable failure) {
+        if (failure != null) {
+            done.completeExceptionally(failure);// tasks depending on it never run
+            return;
+        }
+        if (done.isDone()) {
+            return;// another task has failed
+        }
+        List<TaskEntry> ready = null;
+        for (int c = plan.childStart[i]; c < plan.childStart[i + 1]; c++) {
+            int child = plan.children[c];
+            if (pending.decrementAndGet(child) == 0) {
+                if (ready == null) {
+                    ready = new ArrayList<>(plan.childStart[i + 1] - c);
+                }
+                ready.add(entry(child));
+            }
+        }
+        if (ready != null) {
+            try {
+                runner.admitAndSchedule(ready);
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);// e.g. refused by the journal, nobody else would see it
+                return;
+            }
+        }
+        if (remaining.decrementAndGet() == 0) {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+/**
+ * Binary heap task queue. Not thread-safe, the runner guards it with its lock; only size()
+ * may be read without it.
+ */
+public class HeapTaskQueue implements TaskQueue {
+
+    private PriorityQueue<TaskEntry> heap = new PriorityQueue<>();
+    private volatile int size;
+
+    @Override
+    public void add(TaskEntry e) {
+        heap.add(e);
+        size = heap.size();
+    }
+
+    /**
+     * A batch larger than the heap is merged by rebuilding the heap in O(n) instead of
+     * sifting up every entry.
+     */
+    @Override
+    public void addAll(Collection<TaskEntry> entries) {
+        if (entries.size() <= heap.size()) {
+            heap.addAll(entries);
+        } else {
+            List<TaskEntry> all = new ArrayList<>(heap.size() + entries.size());
+            all.addAll(heap);
+            all.addAll(entries);
+            heap = new PriorityQueue<>(all);// heapify
+        }
+        size = heap.size();
+    }
+
+    @Override
+    public TaskEntry poll() {
+        TaskEntry e = heap.poll();
+        size = heap.size();
+        return e;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        return heap.peek();
+    }
+
+    /**
+     * O(n): a linear scan, the heap only knows its head, then a linear PriorityQueue.remove()
+     */
+    @Override
+    public TaskEntry pollLast() {
+        TaskEntry last = null;
+        for (TaskEntry e : heap) {
+            if (last == null || e.compareTo(last) > 0) {
+                last = e;
+            }
+        }
+        if (last != null) {
+            heap.remove(last);
+            size = heap.size();
+        }
+        return last;
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        heap.removeIf(e -> filter.test(e) && removed.add(e));
+        size = heap.size();
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+}
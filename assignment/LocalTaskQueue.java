@@ -0,0 +1,47 @@
+package assignments;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Priority queue owned by one task thread in work-stealing mode. The owner pushes tasks
+ * scheduled from inside its running task and pops from it, other task threads steal from it
+ * when they run out of work. Also serves as the queue of a group of task threads when affinity
+ * groups are enabled. Guarded by its own monitor, the size is readable without it.
+ */
+class LocalTaskQueue {
+
+    private final HeapTaskQueue heap = new HeapTaskQueue();
+    private volatile int size;
+
+    synchronized void add(TaskEntry e) {
+        heap.add(e);
+        size = heap.size();
+    }
+
+    synchronized void addAll(Collection<TaskEntry> entries) {
+        heap.addAll(entries);
+        size = heap.size();
+    }
+
+    synchronized TaskEntry poll() {
+        TaskEntry e = heap.poll();
+        size = heap.size();
+        return e;
+    }
+
+    synchronized List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = heap.removeIf(filter);
+        size = heap.size();
+        return removed;
+    }
+
+    synchronized TaskEntry peek() {
+        return heap.peek();
+    }
+
+    int size() {
+        return size;
+    }
+}
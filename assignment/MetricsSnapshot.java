@@ -0,0 +1,140 @@
+package assignments;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point-in-time copy of the metrics of a runner, see PriorityTaskRunner.metricsSnapshot().
+ * Counters are cumulative since enableMetrics(); rates are computed between two snapshots.
+ * Every enqueued task is eventually either dequeued or removed.
+ */
+public final class MetricsSnapshot {
+
+    private final long timestampNanos;
+    private final long enqueued;
+    private final long dequeued;
+    private final long removed;
+    private final long busyNanos;
+    private final long idleNanos;
+    private final int queueDepth;
+    private final int queueDepthHighWaterMark;
+    private final int bandWidth;
+    private final HistogramSnapshot[] waitTimes;
+    private final HistogramSnapshot[] runTimes;
+
+    MetricsSnapshot(long timestampNanos, long enqueued, long dequeued, long removed, long busyNanos, long idleNanos,
+                    int queueDepth, int queueDepthHighWaterMark, int bandWidth,
+                    HistogramSnapshot[] waitTimes, HistogramSnapshot[] runTimes) {
+        this.timestampNanos = timestampNanos;
+        this.enqueued = enqueued;
+        this.dequeued = dequeued;
+        this.removed = removed;
+        this.busyNanos = busyNanos;
+        this.idleNanos = idleNanos;
+        this.queueDepth = queueDepth;
+        this.queueDepthHighWaterMark = queueDepthHighWaterMark;
+        this.bandWidth = bandWidth;
+        this.waitTimes = waitTimes;
+        this.runTimes = runTimes;
+    }
+
+    /**
+     * @return System.nanoTime() when the snapshot was taken
+     */
+    public long getTimestampNanos() {
+        return timestampNanos;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return tasks taken off the queues by task threads, including ones dropped as expired
+     */
+    public long getDequeued() {
+        return dequeued;
+    }
+
+    /**
+     * @return tasks that left the queues without a task thread taking them: evicted, shed,
+     * cancelled through their handle or removed by stop
+     */
+    public long getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return time task threads spent in run() of tasks
+     */
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    /**
+     * @return time task threads spent parked waiting for tasks
+     */
+    public long getIdleNanos() {
+        return idleNanos;
+    }
+
+    public double getBusyRatio() {
+        long total = busyNanos + idleNanos;
+        return total == 0 ? 0 : (double) busyNanos / total;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getQueueDepthHighWaterMark() {
+        return queueDepthHighWaterMark;
+    }
+
+    public int getBandCount() {
+        return waitTimes.length;
+    }
+
+    /**
+     * @return priority values covered by each band, band i holds [i * width, (i + 1) * width)
+     */
+    public int getBandWidth() {
+        return bandWidth;
+    }
+
+    /**
+     * @param band priority band
+     * @return time tasks of the band spent queued before a task thread took them
+     */
+    public HistogramSnapshot getWaitTime(int band) {
+        return waitTimes[band];
+    }
+
+    /**
+     * @param band priority band
+     * @return time tasks of the band spent in run()
+     */
+    public HistogramSnapshot getRunTime(int band) {
+        return runTimes[band];
+    }
+
+    /**
+     * @param previous earlier snapshot of the same runner
+     * @return tasks enqueued per second since previous
+     */
+    public double getEnqueueRate(MetricsSnapshot previous) {
+        return perSecond(enqueued - previous.enqueued, previous);
+    }
+
+    /**
+     * @param previous earlier snapshot of the same runner
+     * @return tasks taken by task threads per second since previous
+     */
+    public double getDequeueRate(MetricsSnapshot previous) {
+        return perSecond(dequeued - previous.dequeued, previous);
+    }
+
+    private double perSecond(long delta, MetricsSnapshot previous) {
+        long elapsed = timestampNanos - previous.timestampNanos;
+        return elapsed <= 0 ? 0 : delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+}
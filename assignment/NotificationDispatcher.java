@@ -0,0 +1,148 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers listener notifications on a dedicated thread. Each listener is pinned to one of a
+ * fixed set of NotificationRings by its identity hash, so all events of a listener go through
+ * the same ring and are delivered in the order they were published, whichever task threads
+ * published them. Spreading listeners over several rings keeps task threads notifying
+ * different listeners off each other's tail. Consecutive events for a
+ * BatchTaskNotificationListener are handed over as one batch.
+ */
+final class NotificationDispatcher implements Runnable {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final NotificationOverflowPolicy overflowPolicy;
+    private final NotificationRing[] rings;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread thread;
+    private volatile boolean sleeping;
+    private volatile boolean stopped;
+    // only used by the notification thread
+    private final List<TaskEvent> batch = new ArrayList<>();
+    private BatchTaskNotificationListener batchListener;
+
+    /**
+     * @param ringCapacity number of pending events per ring
+     * @param ringCount number of rings the listeners are spread over, rounded up to a power of two
+     */
+    NotificationDispatcher(int ringCapacity, int ringCount, NotificationOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+        int n = Integer.highestOneBit(Math.max(ringCount - 1, 1)) << 1;
+        rings = new NotificationRing[n];
+        for (int i = 0; i < n; i++) {
+            rings[i] = new NotificationRing(ringCapacity);
+        }
+        thread = new Thread(this, "Task notification thread");
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Deliver the remaining events and wait for the notification thread to terminate
+     */
+    void stop() {
+        stopped = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    long droppedEvents() {
+        return dropped.sum();
+    }
+
+    /**
+     * Called by task threads, never blocks.
+     */
+    void publish(TaskNotificationListener listener, Task task, boolean commence) {
+        NotificationRing ring = rings[System.identityHashCode(listener) & (rings.length - 1)];
+        if (! ring.offer(listener, task, commence)) {
+            if (overflowPolicy == NotificationOverflowPolicy.DISCARD) {
+                dropped.increment();
+                return;
+            }
+            ring.spill(new TaskEvent(listener, task, commence ? TaskEvent.Type.COMMENCE : TaskEvent.Type.COMPLETION));
+        }
+        // sleeping is set before the notification thread re-checks the rings
+        if (sleeping) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            boolean last = stopped;// events published before stop() are drained below
+            int n = 0;
+            for (NotificationRing ring : rings) {
+                n += ring.drain(this);
+            }
+            flushBatch();
+            if (n == 0) {
+                if (last) {
+                    return;
+                }
+                sleeping = true;
+                if (allEmpty() && ! stopped) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    private boolean allEmpty() {
+        for (NotificationRing ring : rings) {
+            if (! ring.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void deliver(TaskNotificationListener listener, Task task, boolean commence) {
+        if (listener instanceof BatchTaskNotificationListener) {
+            if (listener != batchListener) {
+                flushBatch();
+                batchListener = (BatchTaskNotificationListener) listener;
+            }
+            batch.add(new TaskEvent(listener, task, commence ? TaskEvent.Type.COMMENCE : TaskEvent.Type.COMPLETION));
+            return;
+        }
+        flushBatch();
+        try {
+            if (commence) {
+                listener.onTaskCommence(task);
+            } else {
+                listener.onTaskCompletion(task);
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void flushBatch() {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            batchListener.onTaskEvents(new ArrayList<>(batch));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        batch.clear();
+        batchListener = null;
+    }
+}
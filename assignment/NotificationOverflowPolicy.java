@@ -0,0 +1,12 @@
+package assignments;
+
+/**
+ * What a task thread does with a notification when the ring buffer of its listener is full.
+ * Task threads never wait for the notification thread.
+ */
+public enum NotificationOverflowPolicy {
+    // drop the event and count it, see PriorityTaskRunner.droppedNotifications()
+    DISCARD,
+    // keep the event in an unbounded overflow queue, preserving order
+    SPILL
+}
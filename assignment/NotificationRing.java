@@ -0,0 +1,113 @@
+package assignments;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded multi-producer single-consumer ring of notifications written by task threads and
+ * read by the notification thread. A producer claims a slot by advancing tail and publishes
+ * it through the slot's sequence, so events are read in claim order and a producer never
+ * waits for another one. Events that do not fit go to the spill queue; while the spill queue
+ * is not empty producers keep using it, so the events of one producer are read in publish
+ * order.
+ */
+final class NotificationRing {
+
+    private final TaskNotificationListener[] listeners;
+    private final Task[] tasks;
+    private final boolean[] commence;
+    // slot i holds event t once sequences[i] == t + 1, and is free for event t once it is t
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private volatile long head;// next slot to read, written by the consumer
+    private final AtomicLong tail = new AtomicLong();// next slot to claim
+    private final ConcurrentLinkedQueue<TaskEvent> spill = new ConcurrentLinkedQueue<>();
+
+    NotificationRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        listeners = new TaskNotificationListener[size];
+        tasks = new Task[size];
+        commence = new boolean[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side.
+     * @return false if the ring is full or events are waiting in the spill queue
+     */
+    boolean offer(TaskNotificationListener listener, Task task, boolean isCommence) {
+        if (! spill.isEmpty()) {
+            return false;
+        }
+        while (true) {
+            long t = tail.get();
+            int i = (int) t & mask;
+            long s = sequences.get(i);
+            if (s < t) {
+                return false;// the consumer has not freed the slot yet
+            }
+            if (s == t && tail.compareAndSet(t, t + 1)) {
+                listeners[i] = listener;
+                tasks[i] = task;
+                commence[i] = isCommence;
+                sequences.set(i, t + 1);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Producer side, used after offer() failed
+     */
+    void spill(TaskEvent event) {
+        spill.add(event);
+    }
+
+    boolean isEmpty() {
+        return head == tail.get() && spill.isEmpty();
+    }
+
+    /**
+     * Consumer side. Deliver everything published so far.
+     * @return number of delivered events
+     */
+    int drain(NotificationDispatcher dispatcher) {
+        int n = 0;
+        while (true) {
+            long h = head;
+            while (true) {
+                int i = (int) h & mask;
+                if (sequences.get(i) != h + 1) {
+                    break;// not claimed yet, or claimed and still being written
+                }
+                TaskNotificationListener listener = listeners[i];
+                Task task = tasks[i];
+                boolean isCommence = commence[i];
+                listeners[i] = null;
+                tasks[i] = null;
+                sequences.set(i, h + mask + 1);
+                h++;
+                dispatcher.deliver(listener, task, isCommence);
+                n++;
+            }
+            head = h;
+            TaskEvent e = spill.peek();
+            if (e == null) {
+                return n;
+            }
+            // ring events claimed before the spill started come first
+            if (tail.get() != h) {
+                Thread.onSpinWait();// a producer may still be writing its slot
+                continue;
+            }
+            dispatcher.deliver(e.listener, e.getTask(), e.getType() == TaskEvent.Type.COMMENCE);
+            spill.poll();
+            n++;
+        }
+    }
+}
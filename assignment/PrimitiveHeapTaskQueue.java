@@ -0,0 +1,210 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Binary heap keeping the priority and sequence of every entry in primitive arrays next to
+ * the entries, so sifting compares ints and longs without touching the entries or the tasks
+ * and add/poll allocate nothing once the arrays have grown to the working size. Lower
+ * priority values run first as in SampleTask, tasks of equal priority run in submission
+ * order. Task.compareTo is not consulted.
+ * Not thread-safe, the runner guards it with its lock; only size() may be read without it.
+ */
+public class PrimitiveHeapTaskQueue implements TaskQueue {
+
+    private int[] priorities;
+    private long[] sequences;
+    private TaskEntry[] entries;
+    private volatile int size;// only written holding the runner lock
+
+    public PrimitiveHeapTaskQueue() {
+        this(64);
+    }
+
+    /**
+     * @param initialCapacity number of entries the queue holds before it grows
+     */
+    public PrimitiveHeapTaskQueue(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 2);
+        priorities = new int[capacity];
+        sequences = new long[capacity];
+        entries = new TaskEntry[capacity];
+    }
+
+    @Override
+    public void add(TaskEntry e) {
+        int n = size;
+        if (n == entries.length) {
+            grow(n + 1);
+        }
+        siftUp(n, e.getPriority(), e.getSequence(), e);
+        size = n + 1;
+    }
+
+    /**
+     * A batch larger than the heap is appended and heapified in O(n)
+     */
+    @Override
+    public void addAll(Collection<TaskEntry> batch) {
+        int n = size;
+        if (batch.size() <= n) {
+            for (TaskEntry e : batch) {
+                add(e);
+            }
+            return;
+        }
+        if (n + batch.size() > entries.length) {
+            grow(n + batch.size());
+        }
+        for (TaskEntry e : batch) {
+            priorities[n] = e.getPriority();
+            sequences[n] = e.getSequence();
+            entries[n++] = e;
+        }
+        for (int i = (n >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, priorities[i], sequences[i], entries[i], n);
+        }
+        size = n;
+    }
+
+    @Override
+    public TaskEntry poll() {
+        int n = size;
+        if (n == 0) {
+            return null;
+        }
+        TaskEntry head = entries[0];
+        removeAt(0, n);
+        return head;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        return size == 0 ? null : entries[0];
+    }
+
+    /**
+     * Linear scan over the leaves, the least urgent entry is one of them
+     */
+    @Override
+    public TaskEntry pollLast() {
+        int n = size;
+        if (n == 0) {
+            return null;
+        }
+        int last = n >>> 1;
+        for (int i = last + 1; i < n; i++) {
+            if (less(last, i)) {
+                last = i;
+            }
+        }
+        TaskEntry e = entries[last];
+        removeAt(last, n);
+        return e;
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        int n = size;
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            TaskEntry e = entries[i];
+            if (filter.test(e)) {
+                removed.add(e);
+            } else {
+                priorities[kept] = priorities[i];
+                sequences[kept] = sequences[i];
+                entries[kept++] = e;
+            }
+        }
+        if (removed.isEmpty()) {
+            return removed;
+        }
+        Arrays.fill(entries, kept, n, null);
+        for (int i = (kept >>> 1) - 1; i >= 0; i--) {
+            siftDown(i, priorities[i], sequences[i], entries[i], kept);
+        }
+        size = kept;
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * @return true if slot i runs before slot j
+     */
+    private boolean less(int i, int j) {
+        return priorities[i] < priorities[j] || (priorities[i] == priorities[j] && sequences[i] < sequences[j]);
+    }
+
+    private void removeAt(int i, int n) {
+        int last = n - 1;
+        int p = priorities[last];
+        long s = sequences[last];
+        TaskEntry e = entries[last];
+        entries[last] = null;
+        size = last;
+        if (i < last) {
+            siftDown(i, p, s, e, last);
+            if (entries[i] == e) {
+                siftUp(i, p, s, e);
+            }
+        }
+    }
+
+    private void siftUp(int i, int p, long s, TaskEntry e) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (priorities[parent] < p || (priorities[parent] == p && sequences[parent] < s)) {
+                break;
+            }
+            priorities[i] = priorities[parent];
+            sequences[i] = sequences[parent];
+            entries[i] = entries[parent];
+            i = parent;
+        }
+        priorities[i] = p;
+        sequences[i] = s;
+        entries[i] = e;
+    }
+
+    private void siftDown(int i, int p, long s, TaskEntry e, int n) {
+        int half = n >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < n && less(child + 1, child)) {
+                child++;
+            }
+            if (p < priorities[child] || (p == priorities[child] && s < sequences[child])) {
+                break;
+            }
+            priorities[i] = priorities[child];
+            sequences[i] = sequences[child];
+            entries[i] = entries[child];
+            i = child;
+        }
+        priorities[i] = p;
+        sequences[i] = s;
+        entries[i] = e;
+    }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, entries.length * 2);
+        priorities = Arrays.copyOf(priorities, capacity);
+        sequences = Arrays.copyOf(sequences, capacity);
+        entries = Arrays.copyOf(entries, capacity);
+    }
+}
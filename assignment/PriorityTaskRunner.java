@@ -1,11 +1,26 @@
 package assignments;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.PriorityQueue;
-import java.util.Queue;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Predicate;
 
 /**
  * Completed by Yinxia Li.
@@ -15,103 +30,1535 @@ public class PriorityTaskRunner extends AbstractPriorityTaskRunner implements Ru
 
     private final Object lock = new Object();
     private final CountDownLatch countDownLatch;
-    private CountDownLatch executingCountDown;
     private AtomicBoolean stopped = new AtomicBoolean(false);
-    private Task executingTask;
-    private Map<Task, TaskNotificationListener> notificationMap = new HashMap<>();
-    private Queue<Task> executingQueue = new PriorityQueue<>(1);
+    private static final TaskNotificationListener EXECUTE_LISTENER = new SampleTaskNotificationListener();
+    private final ArrayDeque<TaskEntry> executingQueue = new ArrayDeque<>();// guarded by lock
+    private volatile int executingTasks;// size of executingQueue
+    private volatile int idleThreads;// only written holding lock
+    private volatile boolean started;
+    private boolean workStealing;
+    private int inversionBound;
+    private final ThreadLocal<LocalTaskQueue> localQueue = new ThreadLocal<>();
+    private final List<LocalTaskQueue> localQueues = new CopyOnWriteArrayList<>();
+    private NotificationDispatcher notifier;
+    private RunnerMetrics metrics;
+    private Semaphore capacityPermits;// null if unbounded
+    private AdmissionPolicy admissionPolicy;
+    private RejectedTaskHandler rejectedTaskHandler;
+    private final boolean dropExpired;
+    private final LongAdder deadlinesMet = new LongAdder();
+    private final LongAdder deadlinesMissed = new LongAdder();
+    private final TimingWheel timers = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(1), System.nanoTime());
+    private volatile int pendingTimers;// only written holding lock
+    private volatile long nextTimerNanos;// only written holding lock, valid if pendingTimers > 0
+    private boolean timerKeeper;// an idle thread waits for the next timer event
+    private long keeperWakeNanos;
+    private final AtomicInteger tombstones = new AtomicInteger();// cancelled or replaced entries still queued
+    private final Set<Thread> workers = ConcurrentHashMap.newKeySet();// running task threads
+    private final AtomicInteger liveThreads = new AtomicInteger();
+    private volatile int targetThreads;
+    private int nextThreadId;// only used holding lock
+    private AdaptiveConcurrencyController controller;
+    private volatile boolean shuttingDown;// set by stop(ShutdownMode, ...)
+    private volatile int drainThreshold;// least urgent priority still accepted while draining
+    private TaskJournal journal;
+    private TaskNotificationListener recoveredListener;
+    private LocalTaskQueue[] groupQueues;// null unless affinity groups are enabled
+    private int[] idleInGroup;// only used holding lock
+    private AtomicIntegerArray threadsInGroup;
+    private AtomicIntegerArray runningInGroup;// threads of the group running a task
+    private final AtomicInteger nextGroup = new AtomicInteger();
+    private final ThreadLocal<Integer> workerGroup = new ThreadLocal<>();
+    private EntryPool entryPool;
+    private ConcurrentHashMap<Integer, TaskHandle> coalescing;// queued tasks by id, null unless enabled
+    private final LongAdder coalescedTasks = new LongAdder();
 
     // maintains a priority queue for tasks and executes them using task runner threads
 
     public PriorityTaskRunner(int nThreads) {
-       super(nThreads);
+       this(nThreads, new HeapTaskQueue());
+    }
+
+    /**
+     * Runner for tasks whose priorities fall in a small known range, backed by a BucketTaskQueue
+     * @param nThreads number of task threads
+     * @param minPriority lowest priority value (runs first)
+     * @param maxPriority highest priority value (runs last)
+     */
+    public PriorityTaskRunner(int nThreads, int minPriority, int maxPriority) {
+       this(nThreads, new BucketTaskQueue(minPriority, maxPriority));
+    }
+
+    /**
+     * Runner scheduling tasks with a deadline earliest-deadline-first, backed by a DeadlineTaskQueue
+     * @param nThreads number of task threads
+     * @param expiredTaskPolicy what to do with tasks whose deadline has passed while queued
+     */
+    public PriorityTaskRunner(int nThreads, ExpiredTaskPolicy expiredTaskPolicy) {
+       this(nThreads, new DeadlineTaskQueue(expiredTaskPolicy));
+    }
+
+    /**
+     * @param nThreads number of task threads
+     * @param taskQueue queue implementation, e.g. SkipListTaskQueue to keep producers and task
+     *                  threads off the runner lock
+     */
+    public PriorityTaskRunner(int nThreads, TaskQueue taskQueue) {
+       super(nThreads, taskQueue);
+       dropExpired = taskQueue instanceof DeadlineTaskQueue
+               && ((DeadlineTaskQueue) taskQueue).getExpiredTaskPolicy() == ExpiredTaskPolicy.DROP;
        setRunnable(this);
        countDownLatch = new CountDownLatch(nThreads);
+       targetThreads = nThreads;
+       nextThreadId = nThreads;
+    }
+
+    /**
+     * Give every task thread its own queue. Tasks scheduled from inside a running task go to
+     * the local queue of that task thread, idle task threads steal the most urgent task from the
+     * other local queues. Must be called before start().
+     * @param inversionBound a task thread runs its own head task only if its priority value is
+     *                       at most this much above the head of the shared task queue
+     */
+    public void enableWorkStealing(int inversionBound) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       this.workStealing = true;
+       this.inversionBound = inversionBound;
+    }
+
+    /**
+     * Partition the task threads into groups, each with its own queue. Tasks scheduled with an
+     * affinity key always go to the queue of the same group, so related tasks run on the same
+     * set of threads and find their data in the caches of these threads. A task thread takes
+     * the more urgent of the heads of its group queue and the shared task queue, and steals from
+     * another group only once its own group has run out of work and all threads of the other
+     * group are running tasks. Threads are assigned to groups round-robin, including threads added later by
+     * setThreadCount. Must be called before start().
+     * @param groups number of groups, e.g. the number of sockets of the machine
+     */
+    public void enableAffinityGroups(int groups) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       if (groups < 1) {
+           throw new IllegalArgumentException("groups must be positive");
+       }
+       groupQueues = new LocalTaskQueue[groups];
+       for (int i = 0; i < groups; i++) {
+           groupQueues[i] = new LocalTaskQueue();
+       }
+       idleInGroup = new int[groups];
+       threadsInGroup = new AtomicIntegerArray(groups);
+       runningInGroup = new AtomicIntegerArray(groups);
+    }
+
+    /**
+     * Reuse the queue entries of tasks that have run for new tasks, so that in the steady state
+     * scheduling and running a task allocates no entry. Entries of tasks scheduled with a
+     * future, a handle or a period are not reused. Together with a PrimitiveHeapTaskQueue the
+     * path from scheduleTask to the end of a run allocates nothing once warmed up, as long as
+     * metrics, the journal and asynchronous notification are off. Must be called before start().
+     * @param poolSize maximum number of free entries kept
+     */
+    public void enableEntryPooling(int poolSize) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       entryPool = new EntryPool(poolSize);
+    }
+
+    @Override
+    protected TaskEntry recycledEntry() {
+       return entryPool == null ? null : entryPool.acquire();
+    }
+
+    /**
+     * Merge a task passed to scheduleTask or scheduleTasks into the queued task with the same
+     * id, if there is one, instead of queuing it again. The queued task runs once, with the
+     * more urgent of both priorities, and notifies the listeners of all merged copies. A copy
+     * scheduled after a task thread has taken the task is queued on its own. Tasks passed to
+     * submit, scheduleTaskWithHandle and the other schedule methods are not merged.
+     * Must be called before start().
+     */
+    public void enableCoalescing() {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       coalescing = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return number of tasks merged into an already queued copy by enableCoalescing()
+     */
+    public long coalescedTasks() {
+       return coalescedTasks.sum();
+    }
+
+    /**
+     * Deliver listener notifications on a separate notification thread instead of the task
+     * thread. Task threads publish into ring buffers and never wait for a slow listener. Every
+     * listener is pinned to one ring, so it gets its events in the order they were published.
+     * Listeners implementing BatchTaskNotificationListener get consecutive events in batches.
+     * Must be called before start().
+     * @param ringCapacity number of pending events per ring, there are about as many rings as task threads
+     * @param overflowPolicy what to do with an event when its ring is full
+     */
+    public void enableAsyncNotification(int ringCapacity, NotificationOverflowPolicy overflowPolicy) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       notifier = new NotificationDispatcher(ringCapacity, targetThreads, overflowPolicy);
+    }
+
+    /**
+     * Bound the number of queued tasks. Tasks passed to executeTask are not counted.
+     * Must be called before start().
+     * @param capacity maximum number of queued tasks
+     * @param policy what to do with a task when the runner is full
+     * @param handler handler for rejected and evicted tasks, may be null
+     */
+    public void setCapacity(int capacity, AdmissionPolicy policy, RejectedTaskHandler handler) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       // tasks queued already take up room as if admitted, up to capacity, and give their
+       // permits back when they run
+       int[] marked = new int[1];
+       Predicate<TaskEntry> markAdmitted = e -> {
+           if (marked[0] < capacity) {
+               e.admitted = true;
+               marked[0]++;
+           }
+           return false;
+       };
+       synchronized (lock) {
+           taskQueue.removeIf(markAdmitted);
+           for (LocalTaskQueue q : localQueues) {
+               q.removeIf(markAdmitted);
+           }
+           if (groupQueues != null) {
+               for (LocalTaskQueue q : groupQueues) {
+                   q.removeIf(markAdmitted);
+               }
+           }
+           capacityPermits = new Semaphore(capacity - marked[0]);
+       }
+       admissionPolicy = policy;
+       rejectedTaskHandler = handler;
+    }
+
+    /**
+     * Record queue wait and run time histograms per priority band, enqueue/dequeue counts,
+     * busy/idle time of the task threads and the queue depth high-water mark.
+     * Must be called before start().
+     * @param bandWidth number of priority values per band, band i holds [i * bandWidth, (i + 1) * bandWidth)
+     * @param bandCount number of bands, priorities beyond the last band are counted in it
+     */
+    public void enableMetrics(int bandWidth, int bandCount) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       metrics = new RunnerMetrics(bandWidth, bandCount);
+    }
+
+    /**
+     * Let a controller resize the task thread pool once per interval from the arrival rate,
+     * run time, queue depth, wait time and CPU share of the tasks, see
+     * AdaptiveConcurrencyController. Enables metrics with a single band unless enableMetrics()
+     * has been called. Must be called before start().
+     * @param minThreads smallest number of task threads
+     * @param maxThreads largest number of task threads
+     * @param interval time between two adjustments
+     * @param unit unit of interval
+     */
+    public void enableAdaptiveConcurrency(int minThreads, int maxThreads, long interval, TimeUnit unit) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       if (metrics == null) {
+           metrics = new RunnerMetrics(Integer.MAX_VALUE, 1);
+       }
+       controller = new AdaptiveConcurrencyController(this, minThreads, maxThreads, unit.toNanos(interval));
+    }
+
+    /**
+     * Make queued tasks survive a crash, see enableJournal(Path, TaskSerializer,
+     * TaskNotificationListener, int, long, TimeUnit), with 64 MB segments synced every 10 ms
+     */
+    public void enableJournal(Path directory, TaskSerializer serializer, TaskNotificationListener recoveredListener) {
+       enableJournal(directory, serializer, recoveredListener, 64 << 20, 10, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Make queued tasks survive a crash. Every task entering the task queue is appended to a
+     * journal in directory, together with records of its start and completion; start() queues
+     * again the tasks a previous runner using the directory had not completed, including the
+     * ones it returned unrun from stop(ShutdownMode, ...). A task that was running at the crash
+     * runs again. Delayed tasks are journaled once they are due, tasks passed to executeTask
+     * are not journaled. Must be called before start().
+     * @param directory directory of the journal, created if missing
+     * @param serializer serializer of the tasks
+     * @param recoveredListener listener of the recovered tasks, may be null
+     * @param segmentBytes size of a journal segment file, a serialized task must fit into one
+     * @param syncInterval time between two forces of the journal to disk, a crash of the
+     *                     machine loses what was scheduled within the last interval
+     * @param unit unit of syncInterval
+     */
+    public void enableJournal(Path directory, TaskSerializer serializer, TaskNotificationListener recoveredListener,
+                              int segmentBytes, long syncInterval, TimeUnit unit) {
+       if (started) {
+           throw new IllegalStateException("runner already started");
+       }
+       journal = new TaskJournal(directory, serializer, segmentBytes, unit.toNanos(syncInterval));
+       this.recoveredListener = recoveredListener;
+    }
+
+    /**
+     * Grow or shrink the task thread pool. New threads start at once, surplus threads terminate
+     * when they finish their current task or are idle. Before start() this changes the number
+     * of threads start() leaves running.
+     * @param nThreads number of task threads
+     */
+    public void setThreadCount(int nThreads) {
+       if (nThreads < 1) {
+           throw new IllegalArgumentException("nThreads must be positive");
+       }
+       synchronized (lock) {
+           targetThreads = nThreads;
+           if (! started || stopped.get()) {
+               return;
+           }
+           while (liveThreads.get() < nThreads) {
+               liveThreads.incrementAndGet();
+               Thread thr = new Thread(this, "Task thread " + nextThreadId++);
+               workers.add(thr);
+               thr.start();
+           }
+           lock.notifyAll();// let surplus idle threads terminate
+       }
+    }
+
+    /**
+     * @return number of running task threads, including threads about to terminate after a shrink
+     */
+    public int getThreadCount() {
+       return liveThreads.get();
+    }
+
+    Set<Thread> workerThreads() {
+       return workers;
+    }
+
+    /**
+     * @return current metrics, or null if enableMetrics() has not been called
+     */
+    public MetricsSnapshot metricsSnapshot() {
+       return metrics == null ? null : metrics.snapshot(numTasks());
+    }
+
+    /**
+     * @return number of tasks with a deadline that completed by their deadline
+     */
+    public long deadlinesMet() {
+       return deadlinesMet.sum();
+    }
+
+    /**
+     * @return number of tasks with a deadline that completed late or were dropped or shed
+     * because their deadline had passed
+     */
+    public long deadlinesMissed() {
+       return deadlinesMissed.sum();
+    }
+
+    /**
+     * @return number of notifications dropped by NotificationOverflowPolicy.DISCARD
+     */
+    public long droppedNotifications() {
+       return notifier == null ? 0 : notifier.droppedEvents();
+    }
+
+    @Override
+    public void run() {
+       LocalTaskQueue local = null;
+       if (workStealing) {
+           local = new LocalTaskQueue();
+           localQueues.add(local);
+           localQueue.set(local);
+       }
+       int group = -1;
+       if (groupQueues != null) {
+           group = nextGroup.getAndIncrement() % groupQueues.length;
+           workerGroup.set(group);
+           threadsInGroup.incrementAndGet(group);
+           Thread.currentThread().setName(Thread.currentThread().getName() + " (group " + group + ")");
+       }
+       countDownLatch.countDown();
+       while (! stopped.get()) {//keeping running until stop function is called
+           TaskEntry currentEntry = takeTask(local);
+           if (currentEntry == null) {
+               break;// stopped or retired
+           }
+           runTask(currentEntry);
+           if (retire()) {
+               break;
+           }
+       }
+       if (group >= 0) {
+           threadsInGroup.decrementAndGet(group);
+           if (groupQueues[group].size() > 0 && idleThreads > 0) {
+               synchronized (lock) {
+                   lock.notifyAll();// the remaining tasks of the group may be stolen now
+               }
+           }
+       }
+       if (local != null && ! stopped.get()) {// on stop the queue is emptied by stop()
+           localQueues.remove(local);
+           for (TaskEntry e = local.poll(); e != null; e = local.poll()) {
+               addToTaskQueue(e);// hand the tasks of this thread over to the others
+           }
+       }
+       workers.remove(Thread.currentThread());
+    }
+
+    /**
+     * Count the calling task thread as running a task. Once the whole group runs tasks, an idle
+     * thread of another group is woken to steal what is left in the group queue.
+     */
+    private void groupBusy(int group) {
+       if (runningInGroup.incrementAndGet(group) >= threadsInGroup.get(group)
+               && groupQueues[group].size() > 0 && idleThreads > 0) {
+           synchronized (lock) {
+               lock.notify();
+           }
+       }
+    }
+
+    /**
+     * Let the calling task thread terminate if the pool is larger than targetThreads
+     * @return true if the calling thread has to terminate
+     */
+    private boolean retire() {
+       for (int n = liveThreads.get(); n > targetThreads; n = liveThreads.get()) {
+           if (liveThreads.compareAndSet(n, n - 1)) {
+               return true;
+           }
+       }
+       return false;
+    }
+
+    /**
+     * Take the next task, parking until one is available.
+     * @param local local queue of the calling task thread or null
+     * @return next entry or null if the runner has been stopped
+     */
+    TaskEntry takeTask(LocalTaskQueue local) {
+       while (true) {
+           if (pendingTimers > 0 && System.nanoTime() - nextTimerNanos >= 0) {
+               synchronized (lock) {
+                   advanceTimers();
+               }
+           }
+           TaskEntry entry = pollTask(local);
+           if (entry == null) {
+               entry = awaitTask();
+           }
+           if (entry == null || entry.handle == null || entry.handle.take(entry)) {
+               return entry;
+           }
+           dropTombstone(entry);
+       }
+    }
+
+    /**
+     * Run a task taken from the queues on the calling thread, notify its listener and complete
+     * its future. A task failing with an exception does not end the task thread.
+     * @param currentEntry entry of the task to run
+     */
+    void runTask(TaskEntry currentEntry) {
+       if (metrics != null) {
+           metrics.recordTake(currentEntry, System.nanoTime());
+       }
+       if (currentEntry.admitted) {
+           capacityPermits.release();
+       }
+       uncoalesce(currentEntry);
+       if ((dropExpired || admissionPolicy == AdmissionPolicy.SHED_BY_DEADLINE)
+               && currentEntry.isExpired(System.nanoTime())) {
+           deadlinesMissed.increment();
+           reject(currentEntry, false);
+           return;
+       }
+       if (journal != null) {
+           journal.started(currentEntry);
+       }
+       Task currentTask = currentEntry.getTask();
+       TaskNotificationListener listener = currentEntry.getListener();
+       boolean async = listener != null && notifier != null;
+
+       // note for commence
+       if (async) {
+           notifier.publish(listener, currentTask, true);
+       } else if (listener != null) {
+           listener.onTaskCommence(currentTask);
+       }
+       int group = groupQueues != null ? callerGroup() : -1;
+       if (group >= 0) {
+           groupBusy(group);
+       }
+       Throwable failure = null;
+       long startNanos = metrics != null ? System.nanoTime() : 0;
+       try {
+           currentTask.run();
+       } catch (RuntimeException | Error e) {
+           failure = e;
+       }
+       if (metrics != null) {
+           metrics.recordRun(currentEntry, System.nanoTime() - startNanos);
+       }
+       if (group >= 0) {
+           runningInGroup.decrementAndGet(group);
+       }
+       //note for completion
+       if (async) {
+           notifier.publish(listener, currentTask, false);
+       } else if (listener != null) {
+           listener.onTaskCompletion(currentTask);
+       }
+       if (journal != null) {
+           journal.completed(currentEntry);
+       }
+       if (currentEntry.periodNanos != 0 && failure == null && ! stopped.get() && ! shuttingDown) {
+           long period = currentEntry.periodNanos;
+           currentEntry.dueNanos = period > 0 ? currentEntry.dueNanos + period : System.nanoTime() - period;
+           addTimer(currentEntry);
+       }
+       if (currentEntry.hasDeadline) {
+           (currentEntry.isExpired(System.nanoTime()) ? deadlinesMissed : deadlinesMet).increment();
+       }
+       CompletableFuture<Task> future = currentEntry.future;
+       if (currentEntry.waiter != null) {
+           wakeWaiter(currentEntry, failure);// last use, the caller recycles the entry
+       } else if (future == null) {
+           if (failure != null) {
+               failure.printStackTrace();
+           }
+           if (entryPool != null && currentEntry.handle == null && currentEntry.periodNanos == 0) {
+               entryPool.release(currentEntry);
+           }
+       } else if (failure == null) {
+           future.complete(currentTask);
+       } else {
+           future.completeExceptionally(failure);
+       }
+    }
+
+    /**
+     * Let the executeTask caller waiting for an entry return
+     * @param failure what the caller throws, null if the task has run normally
+     */
+    private static void wakeWaiter(TaskEntry entry, Throwable failure) {
+       Thread waiter = entry.waiter;
+       entry.failure = failure;
+       entry.done = true;
+       LockSupport.unpark(waiter);
+    }
+
+    /**
+     * Must be called holding lock.
+     */
+    private TaskEntry pollExecuting() {
+       TaskEntry entry = executingQueue.poll();
+       if (entry != null) {
+           executingTasks = executingQueue.size();
+       }
+       return entry;
+    }
+
+    /**
+     * Count the calling task thread as started, see start()
+     */
+    void taskThreadStarted() {
+       countDownLatch.countDown();
+    }
+
+    boolean isStopped() {
+       return stopped.get();
+    }
+
+    /**
+     * Take a task without the lock. The task queue is only polled here if it is concurrent.
+     * @param local local queue of the calling task thread or null
+     * @return next entry or null
+     */
+    private TaskEntry pollTask(LocalTaskQueue local) {
+       TaskEntry entry = null;
+       if (executingTasks > 0) {
+           synchronized (lock) {
+               entry = pollExecuting();//try to execute executeTask first
+           }
+       }
+       if (entry == null && local != null) {
+           entry = pollLocal(local);
+       }
+       if (entry == null && groupQueues != null && taskQueue.isConcurrent()) {
+           entry = pollGroup(callerGroup());
+       }
+       if (entry == null && taskQueue.isConcurrent()) {
+           entry = taskQueue.poll();
+       }
+       return entry;
+    }
+
+    /**
+     * Pop the head of the local queue unless the shared queue holds a task that is more
+     * urgent by more than inversionBound.
+     */
+    private TaskEntry pollLocal(LocalTaskQueue local) {
+       if (local.size() == 0) {
+           return null;
+       }
+       TaskEntry head = local.peek();
+       TaskEntry global = null;
+       if (taskQueue.isConcurrent()) {
+           global = taskQueue.peek();
+       } else if (taskQueue.size() > 0) {// an empty shared queue is seen without the lock
+           synchronized (lock) {
+               global = taskQueue.peek();
+           }
+       }
+       if (head == null || (global != null && head.getPriority() - global.getPriority() > inversionBound)) {
+           return null;
+       }
+       return local.poll();
+    }
+
+    /**
+     * Must be called holding lock.
+     * @return most urgent head among all local queues, removed from its queue, or null
+     */
+    private TaskEntry steal() {
+       LocalTaskQueue victim = null;
+       TaskEntry best = null;
+       for (LocalTaskQueue q : localQueues) {
+           if (q.size() == 0) {
+               continue;
+           }
+           TaskEntry head = q.peek();
+           if (head != null && (best == null || head.compareTo(best) < 0)) {
+               best = head;
+               victim = q;
+           }
+       }
+       return victim == null ? null : victim.poll();
+    }
+
+    /**
+     * @return group of the calling task thread, or -1 if it belongs to none
+     */
+    private int callerGroup() {
+       Integer group = workerGroup.get();
+       return group == null ? -1 : group;
+    }
+
+    /**
+     * Pop the head of a group queue unless the shared task queue holds a more urgent task.
+     * Must be called holding lock unless the task queue is concurrent.
+     * @param group group of the calling task thread, or -1
+     */
+    private TaskEntry pollGroup(int group) {
+       if (group < 0 || groupQueues[group].size() == 0) {
+           return null;
+       }
+       TaskEntry head = groupQueues[group].peek();
+       TaskEntry global = taskQueue.peek();
+       if (head == null || (global != null && global.compareTo(head) < 0)) {
+           return null;
+       }
+       return groupQueues[group].poll();
+    }
+
+    /**
+     * Must be called holding lock.
+     * @param group group of the calling task thread, or -1
+     * @return most urgent head among the queues of the other groups whose threads all run a
+     * task, removed from its queue, or null
+     */
+    private TaskEntry stealFromGroups(int group) {
+       LocalTaskQueue victim = null;
+       TaskEntry best = null;
+       for (int i = 0; i < groupQueues.length; i++) {
+           if (i == group || runningInGroup.get(i) < threadsInGroup.get(i) || groupQueues[i].size() == 0) {
+               continue;// a thread of group i is about to take it
+           }
+           TaskEntry head = groupQueues[i].peek();
+           if (head != null && (best == null || head.compareTo(best) < 0)) {
+               best = head;
+               victim = groupQueues[i];
+           }
+       }
+       return victim == null ? null : victim.poll();
+    }
+
+    /**
+     * Take a task holding the lock, parking until scheduleTask/executeTask hands over work
+     * or stop() is called.
+     * @return next entry or null if the runner has been stopped
+     */
+    private TaskEntry awaitTask() {
+       synchronized (lock) {
+           int group = groupQueues != null ? callerGroup() : -1;
+           idleThreads++;
+           if (group >= 0) {
+               idleInGroup[group]++;
+           }
+           boolean keeper = false;
+           try {
+               TaskEntry entry = nextTask(group);
+               long idleSince = metrics != null && entry == null ? System.nanoTime() : 0;
+               while (entry == null && ! stopped.get()) {
+                   if (shuttingDown || retire()) {
+                       break;// drained or surplus
+                   }
+                   // one idle thread waits for the next timer event, the others until woken
+                   long timeout = Long.MAX_VALUE;
+                   if (keeper || ! timerKeeper) {
+                       long now = System.nanoTime();
+                       timeout = timers.nanosToNextEvent(now);
+                       keeper = timeout != Long.MAX_VALUE;
+                       timerKeeper = keeper;
+                       keeperWakeNanos = now + timeout;
+                   }
+                   try {
+                       if (keeper) {
+                           TimeUnit.NANOSECONDS.timedWait(lock, Math.max(timeout, 1));
+                       } else {
+                           lock.wait();
+                       }
+                   } catch (InterruptedException e) {
+                       if (stopped.get()) {
+                           break;// interrupted by stop() after its timeout, take nothing more
+                       }
+                       // a stray interrupt, keep serving the queues
+                   }
+                   entry = nextTask(group);
+               }
+               if (idleSince != 0) {
+                   metrics.recordIdle(System.nanoTime() - idleSince);
+               }
+               return entry;
+           } finally {
+               idleThreads--;
+               if (group >= 0) {
+                   idleInGroup[group]--;
+               }
+               if (keeper) {
+                   timerKeeper = false;
+                   if (pendingTimers > 0 && idleThreads > 0) {
+                       lock.notify();// hand the timers over to another idle thread
+                   }
+               }
+           }
+       }
+    }
+
+    /**
+     * Must be called holding lock.
+     * @param group group of the calling task thread, or -1
+     * @return next entry to run, or null when all queues are empty
+     */
+    private TaskEntry nextTask(int group) {
+       advanceTimers();
+       TaskEntry entry = pollExecuting();//try to execute executeTask first
+       if (entry == null && groupQueues != null) {
+           entry = pollGroup(group);
+       }
+       if (entry == null) {
+           entry = taskQueue.poll();//run task from task queue based on the priority
+       }
+       if (entry == null && workStealing) {
+           entry = steal();
+       }
+       if (entry == null && groupQueues != null) {
+           entry = stealFromGroups(group);
+       }
+       return entry;
+    }
+
+
+    /**
+     * Queue the tasks left pending in the journal, they are not admitted against the capacity
+     */
+    private void recoverJournal() {
+       TaskSerializer serializer = journal.serializer();
+       List<TaskEntry> entries = new ArrayList<>(journal.recovered().size());
+       for (TaskJournal.Recovered r : journal.recovered()) {
+           TaskEntry entry = newEntry(serializer.deserialize(r.data), recoveredListener, r.priority);
+           journal.restored(entry, r);
+           entries.add(entry);
+       }
+       journal.recovered().clear();
+       scheduleEntries(entries);
+       journal.start();
+    }
+
+    /**
+     * Start all threads but wait until all have entered run() method before returning from the call
+     */
+    @Override
+    public void start() {
+       started = true;
+       if (notifier != null) {
+           notifier.start();
+       }
+       if (journal != null) {
+           recoverJournal();
+       }
+       liveThreads.set(taskThreads.length);
+       for (Thread taskTread : taskThreads) {
+           workers.add(taskTread);
+           taskTread.start();
+       }
+       //all thread enter run() before returning from the call
+       try {
+           countDownLatch.await();
+       } catch (InterruptedException e) {
+           e.printStackTrace();
+       }
+       if (targetThreads != taskThreads.length) {
+           setThreadCount(targetThreads);
+       }
+       if (controller != null) {
+           controller.start();
+       }
+    }
+
+    /**
+     * Schedule task to be executed by a task thread depending on priority anf task thread
+     * availability.
+     * 
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     */
+    public void scheduleTask(Task t, TaskNotificationListener listener) {
+       if (coalescing != null) {
+           coalesce(t, listener);
+       } else {
+           enqueue(newEntry(t, listener));
+       }
+    }
+
+    /**
+     * Merge the task into the queued task with its id, or queue it and index it by its id
+     */
+    private void coalesce(Task t, TaskNotificationListener listener) {
+       Integer id = t.getId();
+       while (true) {
+           TaskHandle queued = coalescing.get(id);
+           if (queued != null && queued.merge(listener, t.getPriority())) {
+               coalescedTasks.increment();
+               return;
+           }
+           CoalescedListener listeners = new CoalescedListener();
+           listeners.add(listener);
+           TaskEntry entry = newEntry(t, listeners);
+           TaskHandle handle = new TaskHandle(this, entry);
+           if (queued == null ? coalescing.putIfAbsent(id, handle) == null : coalescing.replace(id, queued, handle)) {
+               enqueue(entry);
+               return;
+           }
+           // another copy has been indexed in the meantime, merge into that one
+       }
+    }
+
+    /**
+     * Drop a task leaving the queue from the coalescing index, later copies are queued anew
+     */
+    private void uncoalesce(TaskEntry entry) {
+       if (coalescing != null && entry.handle != null) {
+           coalescing.remove(entry.getTask().getId(), entry.handle);
+       }
+    }
+
+    /**
+     * Schedule task to the group of task threads the affinity key maps to, see
+     * enableAffinityGroups(). Tasks with equal keys go to the same group. Without affinity
+     * groups, or with a null key, this is scheduleTask.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @param affinityKey e.g. a tenant or partition id
+     */
+    public void scheduleTaskWithAffinity(Task t, TaskNotificationListener listener, Object affinityKey) {
+       TaskEntry entry = newEntry(t, listener);
+       if (groupQueues == null || affinityKey == null) {
+           enqueue(entry);
+           return;
+       }
+       int h = affinityKey.hashCode();
+       enqueue(entry, Math.floorMod(h ^ (h >>> 16), groupQueues.length));
+    }
+
+    /**
+     * Schedule task on behalf of a tenant. A FairShareTaskQueue shares the task threads
+     * between tenants by weight, other queues ignore the tenant.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @param tenant tenant the task is accounted to
+     */
+    public void scheduleTaskForTenant(Task t, TaskNotificationListener listener, Object tenant) {
+       TaskEntry entry = newEntry(t, listener);
+       entry.tenant = tenant;
+       enqueue(entry);
+    }
+
+    /**
+     * Schedule task like scheduleTask and return a handle to cancel it or change its priority
+     * while it is queued. Cancelled and replaced entries stay queued until a task thread drops
+     * them and are counted by numTasks() until then.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @return handle of the task
+     */
+    public TaskHandle scheduleTaskWithHandle(Task t, TaskNotificationListener listener) {
+       TaskEntry entry = newEntry(t, listener);
+       TaskHandle handle = new TaskHandle(this, entry);
+       enqueue(entry);
+       return handle;
+    }
+
+    /**
+     * Queue a copy of an entry with another priority, called by TaskHandle holding its lock.
+     * The copy takes over the capacity permit and the future of the old entry.
+     * @return the new entry
+     */
+    TaskEntry requeue(TaskHandle handle, TaskEntry old, int priority) {
+       TaskEntry entry = newEntry(old.getTask(), old.getListener(), priority);
+       entry.handle = handle;
+       entry.future = old.future;
+       entry.enqueueNanos = old.enqueueNanos;
+       entry.hasDeadline = old.hasDeadline;
+       entry.deadlineNanos = old.deadlineNanos;
+       entry.tenant = old.tenant;
+       if (journal != null) {
+           journal.scheduled(entry);// may throw, the old entry keeps its permit then
+       }
+       entry.admitted = old.admitted;
+       old.admitted = false;
+       addToTaskQueue(entry);
+       return entry;
+    }
+
+    /**
+     * Add an admitted entry to the shared task queue and wake an idle thread
+     */
+    private void addToTaskQueue(TaskEntry entry) {
+       if (taskQueue.isConcurrent()) {
+           taskQueue.add(entry);
+           if (idleThreads > 0) {
+               synchronized (lock) {
+                   lock.notify();
+               }
+           }
+       } else {
+           synchronized (lock) {
+               taskQueue.add(entry);
+               lock.notify();
+           }
+       }
     }
 
+    /**
+     * Count an entry cancelled or replaced through its handle. Once tombstones make up half of
+     * the queued entries they are removed from the shared, local and group queues in one pass,
+     * so the queues do not grow under heavy reprioritisation.
+     */
+    void tombstoned(TaskEntry entry) {
+       if (journal != null) {
+           journal.completed(entry);
+       }
+       if (metrics != null && entry.handle.isCancelled()) {
+           metrics.recordRemoved(1);// a replaced entry lives on in its copy
+       }
+       if (tombstones.incrementAndGet() <= Math.max(numTasks() / 2, 64)) {
+           return;
+       }
+       tombstones.set(0);
+       synchronized (lock) {
+           removeAllQueued(e -> e.handle != null && e.handle.isTombstone(e));
+       }
+    }
+
+    private void dropTombstone(TaskEntry entry) {
+       if (entry.admitted) {
+           capacityPermits.release();
+       }
+       tombstones.updateAndGet(n -> Math.max(n - 1, 0));
+    }
+
+    /**
+     * Schedule task like scheduleTask and return a future completed with the task once it has
+     * run, or completed exceptionally with the exception thrown by its run() method.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @return future of the task
+     */
     @Override
-    public void run() {
-       countDownLatch.countDown();
-       while (! stopped.get()) {//keeping running until stop function is called
-           Task currentTask;
+    public CompletableFuture<Task> submit(Task t, TaskNotificationListener listener) {
+       return submitEntry(newEntry(t, listener));
+    }
+
+    /**
+     * Schedule task without a listener, see submit(Task, TaskNotificationListener)
+     * @param t task to be added
+     * @return future of the task
+     */
+    public CompletableFuture<Task> submit(Task t) {
+       return submitEntry(newEntry(t, null));
+    }
+
+    /**
+     * Schedule task with a deadline. A DeadlineTaskQueue orders it by the deadline. In a runner
+     * bounded with AdmissionPolicy.SHED_BY_DEADLINE the caller waits for room while the runner is
+     * full until the deadline at most, and the task is shed instead of run if no task thread has
+     * taken it by then.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @param deadlineNanos deadline in System.nanoTime() terms
+     */
+    public void scheduleTaskWithDeadline(Task t, TaskNotificationListener listener, long deadlineNanos) {
+       TaskEntry entry = newEntry(t, listener);
+       entry.hasDeadline = true;
+       entry.deadlineNanos = deadlineNanos;
+       enqueue(entry);
+    }
+
+    /**
+     * Schedule task to be queued once the delay has elapsed. Delayed tasks wait in a timing
+     * wheel and are not counted by numTasks() or against the capacity of a bounded runner.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @param delay time from now until the task is queued
+     * @param unit unit of delay
+     */
+    public void scheduleTask(Task t, TaskNotificationListener listener, long delay, TimeUnit unit) {
+       TaskEntry entry = newEntry(t, listener);
+       entry.dueNanos = System.nanoTime() + unit.toNanos(delay);
+       addTimer(entry);
+    }
+
+    /**
+     * Schedule task to be queued after initialDelay and then every period, measured from the
+     * planned start of the previous run. Runs never overlap; a late run is followed by the next
+     * one right away. The task is not scheduled again once its run() throws or the runner stops.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of every commencement and completion
+     * @param initialDelay time from now until the task is queued the first time
+     * @param period time between the planned runs
+     * @param unit unit of initialDelay and period
+     */
+    public void scheduleAtFixedRate(Task t, TaskNotificationListener listener, long initialDelay, long period, TimeUnit unit) {
+       if (period <= 0) {
+           throw new IllegalArgumentException("period must be positive");
+       }
+       TaskEntry entry = newEntry(t, listener);
+       entry.dueNanos = System.nanoTime() + unit.toNanos(initialDelay);
+       entry.periodNanos = unit.toNanos(period);
+       addTimer(entry);
+    }
+
+    /**
+     * Schedule task to be queued after initialDelay and then again delay after each run has
+     * completed. The task is not scheduled again once its run() throws or the runner stops.
+     *
+     * @param t task to be added
+     * @param listener listener instance to be notified of every commencement and completion
+     * @param initialDelay time from now until the task is queued the first time
+     * @param delay time between the end of a run and the next time the task is queued
+     * @param unit unit of initialDelay and delay
+     */
+    public void scheduleWithFixedDelay(Task t, TaskNotificationListener listener, long initialDelay, long delay, TimeUnit unit) {
+       if (delay <= 0) {
+           throw new IllegalArgumentException("delay must be positive");
+       }
+       TaskEntry entry = newEntry(t, listener);
+       entry.dueNanos = System.nanoTime() + unit.toNanos(initialDelay);
+       entry.periodNanos = -unit.toNanos(delay);
+       addTimer(entry);
+    }
+
+    /**
+     * @return number of delayed tasks not yet moved to the task queue
+     */
+    public int numDelayedTasks() {
+       return pendingTimers;
+    }
+
+    /**
+     * Put a delayed entry on the timing wheel, or straight into the task queue if it is due.
+     * Wakes the idle thread waiting for timers if the entry is due before it would wake up.
+     */
+    private void addTimer(TaskEntry entry) {
+       if (shuttingDown) {
+           reject(entry, true);
+           return;
+       }
+       List<TaskEntry> due = new ArrayList<>(1);
+       synchronized (lock) {
+           long now = System.nanoTime();
+           timers.advance(now, due);// so the delay counts from now, not from the last tick processed
+           if (entry.dueNanos - now <= 0) {
+               due.add(entry);
+           } else {
+               timers.add(entry, due);
+           }
+           pendingTimers = timers.size();
+           nextTimerNanos = now + timers.nanosToNextEvent(now);
+           if (! due.isEmpty()) {
+               queueDue(due);
+           }
+           if (timerKeeper) {
+               if (nextTimerNanos - keeperWakeNanos < 0) {
+                   lock.notifyAll();// the keeper is not necessarily the one notify() picks
+               }
+           } else if (idleThreads > 0) {
+               lock.notify();
+           }
+       }
+    }
+
+    /**
+     * Must be called holding lock. Move the entries that have become due from the timing
+     * wheel to the task queue in one batch.
+     */
+    private void advanceTimers() {
+       if (pendingTimers == 0) {
+           return;
+       }
+       long now = System.nanoTime();
+       if (now - nextTimerNanos < 0) {
+           return;
+       }
+       List<TaskEntry> due = new ArrayList<>();
+       timers.advance(now, due);
+       pendingTimers = timers.size();
+       nextTimerNanos = now + timers.nanosToNextEvent(now);
+       if (! due.isEmpty()) {
+           queueDue(due);
+       }
+    }
+
+    /**
+     * Must be called holding lock.
+     * @param due delayed entries that have become due
+     */
+    private void queueDue(List<TaskEntry> due) {
+       if (journal != null) {
+           journal.scheduled(due);
+       }
+       if (metrics != null) {
+           long now = System.nanoTime();
+           for (TaskEntry e : due) {
+               e.enqueueNanos = now;
+           }
+       }
+       taskQueue.addAll(due);
+       wakeThreads(due.size());
+       if (metrics != null) {
+           metrics.recordEnqueue(due.size(), numTasks());
+       }
+    }
+
+    private CompletableFuture<Task> submitEntry(TaskEntry entry) {
+       CompletableFuture<Task> future = new CompletableFuture<>();
+       entry.future = future;
+       enqueue(entry);
+       return future;
+    }
+
+    private void enqueue(TaskEntry entry) {
+       enqueue(entry, -1);
+    }
+
+    /**
+     * @param group group whose queue gets the entry, or -1 for the shared or local queue
+     */
+    private void enqueue(TaskEntry entry, int group) {
+       if (! admit(entry)) {
+           reject(entry, true);
+           return;
+       }
+       if (journal != null) {
+           try {
+               journal.scheduled(entry);
+           } catch (RuntimeException e) {
+               unadmit(entry);
+               throw e;
+           }
+       }
+       if (metrics != null) {
+           entry.enqueueNanos = System.nanoTime();
+       }
+       LocalTaskQueue local = workStealing ? localQueue.get() : null;
+       if (group >= 0) {
+           groupQueues[group].add(entry);
+           if (idleThreads > 0) {
+               synchronized (lock) {
+                   if (idleInGroup[group] > 0) {
+                       lock.notifyAll();// notify() may pick a thread of another group, which leaves the entry alone
+                   } else {
+                       lock.notify();// the group may be busy, then any idle thread steals the entry
+                   }
+               }
+           }
+       } else if (local != null || taskQueue.isConcurrent()) {
+           if (local != null) {
+               local.add(entry);// scheduled from a running task, keep it on this thread
+           } else {
+               taskQueue.add(entry);
+           }
+           // idleThreads is incremented before an idle thread re-checks the queues, so either
+           // it sees this entry or we see it and wake it up
+           if (idleThreads > 0) {
+               synchronized (lock) {
+                   lock.notify();
+               }
+           }
+       } else {
            synchronized (lock) {
-              currentTask = executingQueue.poll();//try to execute executeTask first
-              if(currentTask == null) {
-                  currentTask = taskQueue.poll();//run task from task queue based on the priority
-              }
-           }
-
-           if (currentTask != null) {
-        	   		// note for commence
-	    	   	   notificationMap.get(currentTask).onTaskCommence(currentTask);
-	           currentTask.run();
-	           //note for completion
-	           notificationMap.get(currentTask).onTaskCompletion(currentTask);
-	           //executeTask only runs one task;
-	           if (executingTask == currentTask) {
-	       			executingCountDown.countDown();
-	           }
-           }
-           // sleeping to release cpu
+               taskQueue.add(entry);
+               lock.notify();// wake one idle thread
+           }
+       }
+       if (metrics != null) {
+           metrics.recordEnqueue(1, numTasks());
+       }
+    }
+
+    /**
+     * Schedule a batch of tasks taking the lock once and waking at most as many idle task
+     * threads as there are new tasks. With coalescing enabled the tasks are merged one by one.
+     *
+     * @param tasks tasks to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     */
+    public void scheduleTasks(Collection<? extends Task> tasks, TaskNotificationListener listener) {
+       if (tasks.isEmpty()) {
+           return;
+       }
+       if (coalescing != null) {
+           for (Task t : tasks) {
+               coalesce(t, listener);
+           }
+           return;
+       }
+       List<TaskEntry> entries = new ArrayList<>(tasks.size());
+       for (Task t : tasks) {
+           entries.add(newEntry(t, listener));
+       }
+       int rejected = admitAndSchedule(entries);
+       if (rejected > 0 && rejectedTaskHandler == null) {
+           throw new RejectedExecutionException(rejected + " of " + tasks.size() + " tasks rejected");
+       }
+    }
+
+    /**
+     * Schedule the tasks of a graph, each one once the tasks it depends on have completed,
+     * see TaskGraph. The tasks are queued with the most urgent priority found among the tasks
+     * depending on them, so the path leading to an urgent task runs ahead of less urgent work.
+     * Ready tasks are queued in one batch, a task failing or being rejected stops the tasks
+     * depending on it. The dependencies are not journaled, a recovered task runs on its own.
+     *
+     * @param graph tasks and their dependencies
+     * @param listener listener instance to be notified of task commencement and completion events
+     * @return future completed once all tasks have run, or exceptionally with the first failure
+     * @throws IllegalArgumentException if the dependencies form a cycle
+     */
+    public CompletableFuture<Void> scheduleGraph(TaskGraph graph, TaskNotificationListener listener) {
+       return new GraphRun(this, graph.plan(), listener).start();
+    }
+
+    /**
+     * Admit, journal and queue a batch of new entries, rejecting the ones not admitted
+     * @return number of rejected entries
+     */
+    int admitAndSchedule(List<TaskEntry> entries) {
+       List<TaskEntry> admitted = new ArrayList<>(entries.size());
+       List<TaskEntry> rejected = new ArrayList<>(0);
+       long now = metrics != null ? System.nanoTime() : 0;
+       for (TaskEntry entry : entries) {
+           entry.enqueueNanos = now;
+           if (admit(entry)) {
+               admitted.add(entry);
+           } else {
+               rejected.add(entry);
+           }
+       }
+       if (journal != null && ! admitted.isEmpty()) {
            try {
-              Thread.sleep(10);
-           } catch (InterruptedException e) {
-              e.printStackTrace();
+               journal.scheduled(admitted);
+           } catch (RuntimeException e) {
+               for (TaskEntry entry : admitted) {
+                   unadmit(entry);
+               }
+               throw e;
            }
+       }
+       scheduleEntries(admitted);
+       for (TaskEntry entry : rejected) {
+           reject(entry, false);
+       }
+       return rejected.size();
+    }
 
+    private void scheduleEntries(List<TaskEntry> entries) {
+       if (entries.isEmpty()) {
+           return;
+       }
+       LocalTaskQueue local = workStealing ? localQueue.get() : null;
+       if (local != null || taskQueue.isConcurrent()) {
+           if (local != null) {
+               local.addAll(entries);
+           } else {
+               taskQueue.addAll(entries);
+           }
+           if (idleThreads > 0) {
+               synchronized (lock) {
+                   wakeThreads(entries.size());
+               }
+           }
+       } else {
+           synchronized (lock) {
+               taskQueue.addAll(entries);
+               wakeThreads(entries.size());
+           }
+       }
+       if (metrics != null) {
+           metrics.recordEnqueue(entries.size(), numTasks());
        }
     }
 
+    /**
+     * Reserve room for an entry if the runner is bounded, applying the admission policy when
+     * it is full.
+     * @param entry new entry
+     * @return false if the entry has to be rejected
+     */
+    private boolean admit(TaskEntry entry) {
+       if (shuttingDown && (stopped.get() || entry.getPriority() > drainThreshold || ! isTaskThread())) {
+           return false;// only tasks scheduled by draining tasks are still accepted
+       }
+       Semaphore permits = capacityPermits;
+       if (permits == null) {
+           return true;
+       }
+       if (! permits.tryAcquire()) {
+           switch (admissionPolicy) {
+               case BLOCK:
+                   if (isTaskThread() || ! acquire(permits, Long.MAX_VALUE)) {
+                       return false;
+                   }
+                   break;
+               case EVICT_LOWEST:
+                   TaskEntry victim = pollQueuedBelow(entry);
+                   if (victim == null) {
+                       return false;
+                   }
+                   dropQueued(victim);
+                   entry.admitted = victim.admitted;// takes over the permit of the victim
+                   return true;
+               case SHED_BY_DEADLINE:
+                   long now = System.nanoTime();
+                   for (TaskEntry e : removeQueued(e -> e.isExpired(now))) {
+                       if (e.admitted) {
+                           permits.release();
+                       }
+                       deadlinesMissed.increment();
+                       dropQueued(e);
+                   }
+                   if (! permits.tryAcquire()) {
+                       long timeout = entry.hasDeadline ? entry.deadlineNanos - now : 0;
+                       if (isTaskThread() || ! acquire(permits, timeout)) {
+                           return false;
+                       }
+                   }
+                   break;
+               default:
+                   return false;
+           }
+       }
+       entry.admitted = true;
+       return true;
+    }
 
     /**
-     * Start all threads but wait until all have entered run() method before returning from the call
+     * Give back the room of an admitted entry that is not queued after all, e.g. because the
+     * journal refused it
      */
-    @Override
-    public void start() {
-       for (Thread taskTread : taskThreads) {
-           taskTread.start();
+    private void unadmit(TaskEntry entry) {
+       if (entry.admitted) {
+           entry.admitted = false;
+           capacityPermits.release();
        }
-       //all thread enter run() before returning from the call
+       uncoalesce(entry);
+    }
+
+    private boolean acquire(Semaphore permits, long timeoutNanos) {
        try {
-           countDownLatch.await();
+           return timeoutNanos > 0 && permits.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS);
        } catch (InterruptedException e) {
-           e.printStackTrace();
+           Thread.currentThread().interrupt();
+           return false;
        }
     }
 
     /**
-     * Schedule task to be executed by a task thread depending on priority anf task thread
-     * availability.
-     * 
-     * @param t task to be added
-     * @param listener listener instance to be notified of task commencement and completion events
+     * @return the least urgent queued entry, removed from the task queue, if it is less urgent than entry
      */
-    public void scheduleTask(Task t, TaskNotificationListener listener) {
+    private TaskEntry pollQueuedBelow(TaskEntry entry) {
+       if (taskQueue.isConcurrent()) {
+           return pollLastBelow(entry);
+       }
+       synchronized (lock) {
+           return pollLastBelow(entry);
+       }
+    }
+
+    private TaskEntry pollLastBelow(TaskEntry entry) {
+       TaskEntry last = taskQueue.pollLast();
+       if (last != null && last.getPriority() <= entry.getPriority()) {
+           taskQueue.add(last);// the new entry is the least urgent one
+           return null;
+       }
+       return last;
+    }
+
+    private List<TaskEntry> removeQueued(Predicate<TaskEntry> filter) {
+       if (taskQueue.isConcurrent()) {
+           return taskQueue.removeIf(filter);
+       }
        synchronized (lock) {
-           taskQueue.add(t);
+           return taskQueue.removeIf(filter);
+       }
+    }
+
+    private boolean isTaskThread() {
+       return workers.contains(Thread.currentThread());
+    }
+
+    /**
+     * Reject an entry removed from the queues without a task thread taking it
+     */
+    private void dropQueued(TaskEntry entry) {
+       if (metrics != null && (entry.handle == null || ! entry.handle.isTombstone(entry))) {
+           metrics.recordRemoved(1);// cancelled ones have been counted already
+       }
+       reject(entry, false);
+    }
+
+    /**
+     * Hand a rejected or evicted entry to the rejected task handler and fail its future.
+     * @param entry rejected entry
+     * @param throwToCaller throw RejectedExecutionException if there is neither a handler nor a future
+     */
+    private void reject(TaskEntry entry, boolean throwToCaller) {
+       if (entry.handle != null && ! entry.handle.take(entry)) {
+           return;// cancelled or replaced, nothing left to reject
+       }
+       uncoalesce(entry);
+       if (journal != null) {
+           journal.completed(entry);
+       }
+       RejectedExecutionException rejection = new RejectedExecutionException("task " + entry.getTask().getId() + " rejected");
+       if (rejectedTaskHandler != null) {
+           rejectedTaskHandler.onTaskRejected(entry.getTask(), entry.getListener());
+       }
+       if (entry.future != null) {
+           entry.future.completeExceptionally(rejection);
+       } else if (entry.waiter != null) {
+           wakeWaiter(entry, rejection);
+       } else if (throwToCaller && rejectedTaskHandler == null) {
+           throw rejection;
+       }
+    }
+
+    /**
+     * Must be called holding lock.
+     * @param n number of new tasks
+     */
+    private void wakeThreads(int n) {
+       if (n >= idleThreads) {
+           lock.notifyAll();
+       } else {
+           for (int i = 0; i < n; i++) {
+               lock.notify();
+           }
        }
-       notificationMap.put(t, listener);
     }
 
     /**
-     * Execute the task using the task thread but wait for it to terminate
+     * Execute the task using the task thread but wait for it to terminate. A caller interrupted
+     * while waiting returns with its interrupt status set, the task does not run unless a task
+     * thread has taken it already.
      * 
      * @param t task to execute
      */
-    public synchronized void executeTask(Task t) {
-       // only one task can be run by executeTask.
-       // so we need track this task, make sure it's terminated.
-       executingTask = t;
-       executingQueue.add(t);
-       //run only one task
-       executingCountDown = new CountDownLatch(1);
-       notificationMap.put(t, new SampleTaskNotificationListener());
-       try {
-           executingCountDown.await();// wait for count to be 0
-       } catch (InterruptedException e) {
-           e.printStackTrace();
+    public void executeTask(Task t) {
+       if (shuttingDown) {
+           throw new RejectedExecutionException("task " + t.getId() + " rejected, runner is shutting down");
+       }
+       // runs ahead of the task queue, several callers may wait at the same time
+       TaskEntry entry = newEntry(t, EXECUTE_LISTENER);
+       entry.waiter = Thread.currentThread();
+       if (metrics != null) {
+           entry.enqueueNanos = System.nanoTime();
+           metrics.recordEnqueue(1, numTasks());
+       }
+       synchronized (lock) {
+           executingQueue.add(entry);
+           executingTasks = executingQueue.size();
+           lock.notify();
+       }
+       while (! entry.done) {// wait for the task to terminate
+           LockSupport.park(this);
+           if (Thread.currentThread().isInterrupted()) {
+               abandon(entry);
+               return;
+           }
+       }
+       Throwable failure = entry.failure;
+       if (entryPool != null) {
+           entryPool.release(entry);
+       }
+       if (failure instanceof CancellationException) {
+           throw (CancellationException) failure;
+       } else if (failure != null) {
+           throw new CompletionException(failure);
+       }
+    }
+
+    /**
+     * Called by an executeTask caller that stops waiting for its entry
+     */
+    private void abandon(TaskEntry entry) {
+       boolean removed;
+       synchronized (lock) {
+           removed = executingQueue.remove(entry);
+           executingTasks = executingQueue.size();
+       }
+       if (! removed) {
+           entry.waiter = null;// taken by a task thread, it runs without waking anyone
+       } else if (metrics != null) {
+           metrics.recordRemoved(1);
        }
-       executingTask = null;//reset executingTask
     }
 
     /**
@@ -119,7 +1566,13 @@ public class PriorityTaskRunner extends AbstractPriorityTaskRunner implements Ru
      * thread!!)
      */
     public void stop() {
+       if (controller != null) {
+           controller.stop();
+       }
        stopped.set(true);
+       synchronized (lock) {
+           lock.notifyAll();// wake idle threads so they can observe stopped
+       }
        for (Thread thr : taskThreads) {
            try {
         	      thr.join();// wait for all threads to terminate before stopping
@@ -127,12 +1580,163 @@ public class PriorityTaskRunner extends AbstractPriorityTaskRunner implements Ru
               e.printStackTrace();
            }
        }
+       for (Thread thr : workers) {
+           try {
+               thr.join();// threads added by setThreadCount
+           } catch (InterruptedException e) {
+               e.printStackTrace();
+           }
+       }
+       awaitRunningTasks(Long.MAX_VALUE);
+       if (notifier != null) {
+           notifier.stop();
+       }
+       if (journal != null) {
+           journal.close();
+       }
+    }
+
+    /**
+     * Wait for tasks running outside the task threads, called by stop() once the task threads
+     * have terminated and before the notification thread and the journal are closed
+     * @param timeoutNanos time left to wait, Long.MAX_VALUE to wait for as long as it takes
+     */
+    protected void awaitRunningTasks(long timeoutNanos) {
+    }
+
+    /**
+     * Stop the runner without losing track of queued tasks. New tasks are rejected from now on,
+     * except tasks scheduled by running tasks while draining that the mode still runs. Task
+     * threads terminate once the tasks to drain have run; at the timeout the remaining ones are
+     * interrupted and not waited for. Futures of the tasks returned unrun are cancelled, an
+     * executeTask caller waiting for one gets a CancellationException.
+     *
+     * @param mode which queued tasks still run
+     * @param priorityThreshold for DRAIN_ABOVE_PRIORITY, tasks with a priority value up to this
+     *                          one run, ignored by the other modes
+     * @param timeout time to wait for the tasks to drain and the task threads to terminate
+     * @param unit unit of timeout
+     * @return entries of the tasks that have not run, with their listeners
+     */
+    public List<TaskEntry> stop(ShutdownMode mode, int priorityThreshold, long timeout, TimeUnit unit) {
+       long deadline = System.nanoTime() + unit.toNanos(timeout);
+       if (controller != null) {
+           controller.stop();
+       }
+       List<TaskEntry> unrun = new ArrayList<>();
+       synchronized (lock) {
+           drainThreshold = mode == ShutdownMode.DRAIN_ABOVE_PRIORITY ? priorityThreshold : Integer.MAX_VALUE;
+           shuttingDown = true;
+           timers.removeAll(unrun);
+           pendingTimers = 0;
+           if (mode == ShutdownMode.IMMEDIATE) {
+               stopped.set(true);
+               unrun.addAll(removeAllQueued(e -> true));
+           } else if (mode == ShutdownMode.DRAIN_ABOVE_PRIORITY) {
+               unrun.addAll(removeAllQueued(e -> e.getPriority() > priorityThreshold));
+           }
+           lock.notifyAll();// idle threads terminate, drain threads find the queues empty
+       }
+       if (! awaitWorkers(deadline)) {
+           stopped.set(true);
+           synchronized (lock) {
+               lock.notifyAll();
+           }
+           for (Thread thr : workers) {
+               thr.interrupt();
+           }
+       }
+       awaitRunningTasks(deadline - System.nanoTime());
+       synchronized (lock) {
+           unrun.addAll(removeAllQueued(e -> true));// left behind by the timeout
+       }
+       if (notifier != null) {
+           notifier.stop();
+       }
+       if (journal != null) {
+           journal.close();// unrun tasks stay pending in the journal
+       }
+       List<TaskEntry> result = new ArrayList<>(unrun.size());
+       for (TaskEntry e : unrun) {
+           if (e.handle != null && ! e.handle.take(e)) {
+               continue;// tombstone
+           }
+           if (e.future != null) {
+               e.future.cancel(false);
+           } else if (e.waiter != null) {
+               wakeWaiter(e, new CancellationException("runner stopped"));
+           }
+           result.add(e);
+       }
+       return result;
+    }
+
+    /**
+     * Stop like stop(ShutdownMode, int, long, TimeUnit) with a mode that takes no threshold
+     */
+    public List<TaskEntry> stop(ShutdownMode mode, long timeout, TimeUnit unit) {
+       return stop(mode, Integer.MAX_VALUE, timeout, unit);
+    }
+
+    /**
+     * @param deadline System.nanoTime() to give up at
+     * @return true if all task threads have terminated
+     */
+    private boolean awaitWorkers(long deadline) {
+       for (Thread thr : workers) {
+           try {
+               TimeUnit.NANOSECONDS.timedJoin(thr, deadline - System.nanoTime());
+           } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return false;
+           }
+           if (thr.isAlive()) {
+               return false;
+           }
+       }
+       return true;
+    }
+
+    /**
+     * Must be called holding lock.
+     * @return entries removed from the shared, local and executeTask queues
+     */
+    private List<TaskEntry> removeAllQueued(Predicate<TaskEntry> filter) {
+       List<TaskEntry> removed = new ArrayList<>(taskQueue.removeIf(filter));
+       for (LocalTaskQueue q : localQueues) {
+           removed.addAll(q.removeIf(filter));
+       }
+       if (groupQueues != null) {
+           for (LocalTaskQueue q : groupQueues) {
+               removed.addAll(q.removeIf(filter));
+           }
+       }
+       executingQueue.removeIf(e -> filter.test(e) && removed.add(e));
+       executingTasks = executingQueue.size();
+       for (TaskEntry e : removed) {
+           if (e.admitted) {
+               capacityPermits.release();
+           }
+           if (metrics != null && (e.handle == null || ! e.handle.isTombstone(e))) {
+               metrics.recordRemoved(1);
+           }
+       }
+       return removed;
     }
 
     /**
      * @return number of tasks waiting for execution in the task queue
      */
     public int numTasks() {
-       return taskQueue.size();
+       int n = taskQueue.size();
+       for (LocalTaskQueue q : localQueues) {
+           n += q.size();
+       }
+       if (groupQueues != null) {
+           for (LocalTaskQueue q : groupQueues) {
+               n += q.size();
+           }
+       }
+       return n;
     }
 }
\ No newline at end of file
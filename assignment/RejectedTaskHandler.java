@@ -0,0 +1,7 @@
+package assignments;
+
+
+public interface RejectedTaskHandler {
+    // called when the task t is rejected or evicted by a bounded runner
+    void onTaskRejected(Task t, TaskNotificationListener listener);
+}
@@ -0,0 +1,245 @@
+package assignments;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Worker process of a TaskCoordinator. Pulls tasks in batches over one connection, runs them
+ * on a local PriorityTaskRunner and reports their commencement and completion. Asks for more
+ * tasks once half of a batch has completed, and renews its leases three times per lease time.
+ * Terminates when the coordinator closes the connection. Run as a separate JVM with
+ *
+ *     java assignments.RemoteTaskWorker host port threads serializerClass [batchSize]
+ *
+ * where serializerClass is a TaskSerializer with a constructor without arguments.
+ */
+public class RemoteTaskWorker implements Runnable {
+
+    private final InetSocketAddress coordinator;
+    private final TaskSerializer serializer;
+    private final int batchSize;
+    private final PriorityTaskRunner runner;
+    private final ByteBuffer out = ByteBuffer.allocate(64);// guarded by itself
+    private final Object creditLock = new Object();
+    private int outstanding;// tasks asked for and not completed, guarded by creditLock
+    private SocketChannel channel;
+    private Thread reader;
+    private Thread renewer;
+    private volatile long leaseNanos;
+    private volatile boolean stopped;
+
+    /**
+     * @param coordinator address of the coordinator
+     * @param nThreads number of task threads of the local runner
+     * @param serializer serializer of the tasks, equivalent to the coordinator's one
+     * @param batchSize number of tasks asked for at a time, tasks beyond nThreads wait in the
+     *                  local runner's queue
+     */
+    public RemoteTaskWorker(InetSocketAddress coordinator, int nThreads, TaskSerializer serializer, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.coordinator = coordinator;
+        this.serializer = serializer;
+        this.batchSize = batchSize;
+        this.runner = new PriorityTaskRunner(nThreads);
+    }
+
+    /**
+     * Connect to the coordinator and start pulling tasks
+     */
+    public void start() throws IOException {
+        channel = SocketChannel.open(coordinator);
+        channel.socket().setTcpNoDelay(true);
+        runner.start();
+        reader = new Thread(this, "Task worker reader");
+        reader.start();
+        pullMore();
+    }
+
+    /**
+     * Disconnect and stop the local runner once its running tasks have completed. Tasks not
+     * run yet are queued again by the coordinator.
+     */
+    public void stop() {
+        stopped = true;
+        kill();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Wait until the coordinator has closed the connection and the local runner has stopped
+     */
+    public void awaitTermination() throws InterruptedException {
+        reader.join();
+    }
+
+    /**
+     * Drop the connection as if the process had died, the local runner keeps running
+     */
+    void kill() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reader loop, receives the leased tasks
+     */
+    @Override
+    public void run() {
+        ByteBuffer header = ByteBuffer.allocate(5);
+        try {
+            while (true) {
+                header.clear();
+                readFully(header);
+                int length = header.getInt(0);
+                if (length < 1 || length > TaskCoordinator.MAX_FRAME) {
+                    throw new IOException("bad frame length " + length);
+                }
+                ByteBuffer payload = ByteBuffer.allocate(length - 1);
+                readFully(payload);
+                payload.flip();
+                byte type = header.get(4);
+                if (type == TaskCoordinator.HELLO) {
+                    leaseNanos = payload.getLong();
+                    startRenewer();
+                } else if (type == TaskCoordinator.TASK) {
+                    long leaseId = payload.getLong();
+                    byte[] data = new byte[payload.remaining()];
+                    payload.get(data);
+                    runner.scheduleTask(serializer.deserialize(data), new LeaseListener(leaseId));
+                } else {
+                    throw new IOException("unknown frame type " + type);
+                }
+            }
+        } catch (IOException e) {
+            if (! stopped && channel.isOpen()) {
+                e.printStackTrace();
+            }
+        } finally {
+            kill();
+            if (renewer != null) {
+                renewer.interrupt();
+            }
+            runner.stop();
+        }
+    }
+
+    private void readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("coordinator closed the connection");
+            }
+        }
+    }
+
+    private void startRenewer() {
+        renewer = new Thread(() -> {
+            long interval = Math.max(leaseNanos / 3, 1);
+            try {
+                while (channel.isOpen()) {
+                    TimeUnit.NANOSECONDS.sleep(interval);
+                    send(TaskCoordinator.RENEW, 0);
+                }
+            } catch (InterruptedException | IOException e) {
+                // disconnected
+            }
+        }, "Task worker renewer");
+        renewer.setDaemon(true);
+        renewer.start();
+    }
+
+    /**
+     * Ask for as many tasks as make the outstanding ones a full batch, once half of the
+     * previous batch has completed
+     */
+    private void pullMore() throws IOException {
+        int n;
+        synchronized (creditLock) {
+            if (outstanding > batchSize / 2) {
+                return;
+            }
+            n = batchSize - outstanding;
+            outstanding = batchSize;
+        }
+        send(TaskCoordinator.PULL, n);
+    }
+
+    /**
+     * Write a frame with an int payload, or a long one for COMMENCED and COMPLETED
+     */
+    private void send(byte type, long value) throws IOException {
+        synchronized (out) {
+            out.clear();
+            if (type == TaskCoordinator.PULL) {
+                out.putInt(5).put(type).putInt((int) value);
+            } else if (type == TaskCoordinator.RENEW) {
+                out.putInt(1).put(type);
+            } else {
+                out.putInt(9).put(type).putLong(value);
+            }
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Reports the events of one leased task to the coordinator
+     */
+    private class LeaseListener implements TaskNotificationListener {
+        private final long leaseId;
+
+        LeaseListener(long leaseId) {
+            this.leaseId = leaseId;
+        }
+
+        @Override
+        public void onTaskCommence(Task t) {
+            try {
+                send(TaskCoordinator.COMMENCED, leaseId);
+            } catch (IOException e) {
+                // disconnected, the coordinator queues the task again
+            }
+        }
+
+        @Override
+        public void onTaskCompletion(Task t) {
+            try {
+                send(TaskCoordinator.COMPLETED, leaseId);
+                synchronized (creditLock) {
+                    outstanding--;
+                }
+                pullMore();
+            } catch (IOException e) {
+                // disconnected, the coordinator queues the task again
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.err.println("usage: RemoteTaskWorker host port threads serializerClass [batchSize]");
+            System.exit(2);
+        }
+        int threads = Integer.parseInt(args[2]);
+        TaskSerializer serializer = (TaskSerializer) Class.forName(args[3]).getDeclaredConstructor().newInstance();
+        int batchSize = args.length > 4 ? Integer.parseInt(args[4]) : 2 * threads;
+        RemoteTaskWorker worker = new RemoteTaskWorker(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                threads, serializer, batchSize);
+        worker.start();
+        worker.awaitTermination();
+    }
+}
@@ -0,0 +1,87 @@
+package assignments;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms recorded by a runner around the dispatch point. All counters are
+ * striped, recording never takes the runner lock.
+ */
+final class RunnerMetrics {
+
+    private final int bandWidth;
+    private final LatencyHistogram[] waitTimes;
+    private final LatencyHistogram[] runTimes;
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder dequeued = new LongAdder();
+    private final LongAdder removed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder idleNanos = new LongAdder();
+    private final AtomicInteger depthHighWaterMark = new AtomicInteger();
+
+    RunnerMetrics(int bandWidth, int bandCount) {
+        if (bandWidth <= 0 || bandCount <= 0) {
+            throw new IllegalArgumentException("bandWidth and bandCount must be positive");
+        }
+        this.bandWidth = bandWidth;
+        waitTimes = new LatencyHistogram[bandCount];
+        runTimes = new LatencyHistogram[bandCount];
+        for (int i = 0; i < bandCount; i++) {
+            waitTimes[i] = new LatencyHistogram();
+            runTimes[i] = new LatencyHistogram();
+        }
+    }
+
+    private int band(int priority) {
+        return Math.min(Math.max(Math.floorDiv(priority, bandWidth), 0), waitTimes.length - 1);
+    }
+
+    /**
+     * @param n number of enqueued tasks
+     * @param depth queue depth after the enqueue
+     */
+    void recordEnqueue(int n, int depth) {
+        enqueued.add(n);
+        if (depth > depthHighWaterMark.get()) {
+            depthHighWaterMark.accumulateAndGet(depth, Math::max);
+        }
+    }
+
+    /**
+     * Called when a task thread takes an entry off the queues
+     */
+    void recordTake(TaskEntry entry, long nowNanos) {
+        dequeued.increment();
+        waitTimes[band(entry.getPriority())].record(nowNanos - entry.enqueueNanos);
+    }
+
+    /**
+     * @param runNanos time spent in run(), listeners not included
+     */
+    void recordRun(TaskEntry entry, long runNanos) {
+        runTimes[band(entry.getPriority())].record(runNanos);
+        busyNanos.add(runNanos);
+    }
+
+    /**
+     * @param n number of entries that left the queues without a task thread taking them
+     */
+    void recordRemoved(int n) {
+        removed.add(n);
+    }
+
+    void recordIdle(long nanos) {
+        idleNanos.add(nanos);
+    }
+
+    MetricsSnapshot snapshot(int queueDepth) {
+        HistogramSnapshot[] waits = new HistogramSnapshot[waitTimes.length];
+        HistogramSnapshot[] runs = new HistogramSnapshot[runTimes.length];
+        for (int i = 0; i < waits.length; i++) {
+            waits[i] = waitTimes[i].snapshot();
+            runs[i] = runTimes[i].snapshot();
+        }
+        return new MetricsSnapshot(System.nanoTime(), enqueued.sum(), dequeued.sum(), removed.sum(), busyNanos.sum(),
+                idleNanos.sum(), queueDepth, depthHighWaterMark.get(), bandWidth, waits, runs);
+    }
+}
@@ -0,0 +1,15 @@
+package assignments;
+
+/**
+ * How PriorityTaskRunner.stop(ShutdownMode, int, long, TimeUnit) treats queued tasks.
+ * In every mode delayed tasks that are not yet due are returned unrun, new tasks are rejected
+ * and task threads still running when the timeout expires are interrupted.
+ */
+public enum ShutdownMode {
+    // run all queued tasks before the task threads terminate
+    DRAIN_ALL,
+    // run the queued tasks at least as urgent as the priority threshold, return the others
+    DRAIN_ABOVE_PRIORITY,
+    // return all queued tasks, only wait for the running ones
+    IMMEDIATE
+}
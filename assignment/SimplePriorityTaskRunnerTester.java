@@ -7,8 +7,26 @@ import assignments.SampleTask;
 import assignments.SampleTaskNotificationListener;
 import assignments.Task;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class SimplePriorityTaskRunnerTester {
@@ -114,6 +132,28 @@ public class SimplePriorityTaskRunnerTester {
         }
     }
 
+    // task with an empty body for tests that only look at scheduling
+    private static class QuietTask extends SampleTask {
+        public QuietTask(int priority, int id) {
+            super(priority, id);
+        }
+        @Override
+        public void run() {
+        }
+    }
+
+    private static class QuietDeadlineTask extends QuietTask implements DeadlineTask {
+        private final long deadlineNanos;
+        public QuietDeadlineTask(int priority, int id, long deadlineNanos) {
+            super(priority, id);
+            this.deadlineNanos = deadlineNanos;
+        }
+        @Override
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+    }
+
     private class TestTaskNotificationListener extends SampleTaskNotificationListener {
         private final CountDownLatch finishSignal;
         public TestTaskNotificationListener(CountDownLatch finishSignal) {
@@ -136,6 +176,85 @@ public class SimplePriorityTaskRunnerTester {
         }
     }
 
+    // writes priority and id of a QuietTask for the journal and worker tests, worker JVMs load it by name
+    static class QuietTaskSerializer implements TaskSerializer {
+        @Override
+        public byte[] serialize(Task t) {
+            return ByteBuffer.allocate(8).putInt(t.getPriority()).putInt(t.getId()).array();
+        }
+        @Override
+        public Task deserialize(byte[] data) {
+            ByteBuffer b = ByteBuffer.wrap(data);
+            return new QuietTask(b.getInt(), b.getInt());
+        }
+    }
+
+    // reads tasks that block until release is counted down, for a worker holding on to its tasks
+    private static class BlockingTaskSerializer extends QuietTaskSerializer {
+        private final CountDownLatch release;
+        public BlockingTaskSerializer(CountDownLatch release) {
+            this.release = release;
+        }
+        @Override
+        public Task deserialize(byte[] data) {
+            ByteBuffer b = ByteBuffer.wrap(data);
+            b.getInt();
+            return new ThreadRecordingTask(b.getInt(), new ArrayList<>(), release);
+        }
+    }
+
+    // sends a raw frame to a coordinator, returns true if it closes the connection within 5 seconds
+    private static boolean closedAfter(InetSocketAddress address, ByteBuffer frame) throws IOException {
+        try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+            socket.setSoTimeout(5000);
+            socket.getOutputStream().write(frame.array(), 0, frame.position());
+            InputStream in = socket.getInputStream();
+            while (in.read() >= 0) {
+                // skip HELLO
+            }
+            return true;
+        } catch (SocketTimeoutException e) {
+            return false;
+        }
+    }
+
+    // task recording the name of its thread, then blocking until released
+    private static class ThreadRecordingTask extends QuietTask {
+        private final List<String> threadNames;
+        private final CountDownLatch release;
+        public ThreadRecordingTask(int id, List<String> threadNames, CountDownLatch release) {
+            super(0, id);
+            this.threadNames = threadNames;
+            this.release = release;
+        }
+        @Override
+        public void run() {
+            synchronized (threadNames) {
+                threadNames.add(Thread.currentThread().getName());
+            }
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // listener counting completions without printing, for tests scheduling many tasks
+    private static class CountingListener implements TaskNotificationListener {
+        private final CountDownLatch finishSignal;
+        public CountingListener(CountDownLatch finishSignal) {
+            this.finishSignal = finishSignal;
+        }
+        @Override
+        public void onTaskCommence(Task t) {
+        }
+        @Override
+        public void onTaskCompletion(Task t) {
+            finishSignal.countDown();
+        }
+    }
+
     // check if TaskRunner start/stop works correctly
     public void test1() {
         clear();
@@ -512,6 +631,1839 @@ public class SimplePriorityTaskRunnerTester {
         }
     }
 
+    //check if a concurrent task queue keeps priority order
+    public void test9() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(4);
+        CountDownLatch finishSignal = new CountDownLatch(4);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1, new SkipListTaskQueue());
+            taskRunner.scheduleTask(new TestTask(15,100,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(12,200,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(12,300,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(5,400,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            try {
+                assert taskRunner.numTasks() == 4;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.start();
+            finishSignal.await();
+            try {
+                assert taskIdsSame(commencedTaskIds, Arrays.asList(400, 200, 300, 100), true);
+                assert taskRunner.numTasks() == 0;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            // priority comes first even where compareTo disagrees, compareTo only breaks ties
+            clear();
+            CountDownLatch orderSignal = new CountDownLatch(3);
+            taskRunner = new PriorityTaskRunner(1, new SkipListTaskQueue());
+            int[][] tasks = {{5, 1}, {1, 3}, {1, 2}};// priority, id
+            for (int[] t : tasks) {
+                taskRunner.scheduleTask(new QuietTask(t[0], t[1]) {
+                    @Override
+                    public int compareTo(Task o) {
+                        return Integer.compare(getId(), o.getId());
+                    }
+                }, new TestTaskNotificationListener(orderSignal));
+            }
+            taskRunner.start();
+            orderSignal.await();
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(2, 3, 1));
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest9 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest9 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+    //check if the bucket queue keeps priority order and FIFO order within a priority
+    public void test10() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(5);
+        CountDownLatch finishSignal = new CountDownLatch(5);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1, 0, 255);
+            taskRunner.scheduleTask(new TestTask(200,100,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(7,200,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(64,300,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(7,400,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(0,500,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.start();
+            finishSignal.await();
+            try {
+                assert taskIdsSame(commencedTaskIds, Arrays.asList(500, 200, 400, 300, 100), true);
+                assert taskRunner.numTasks() == 0;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            try {
+                taskRunner.scheduleTask(new TestTask(256,600,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+                passed = false;
+            } catch (IllegalArgumentException e) {
+                points += 1;
+            }
+            System.out.println("\nTest10 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest10 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+    //check if tasks scheduled from a running task are run (and stolen) in work-stealing mode
+    public void test11() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(21);
+        CountDownLatch finishSignal = new CountDownLatch(21);
+        CountDownLatch purgeSignal = new CountDownLatch(1);
+        PriorityTaskRunner taskRunner = null;
+        PriorityTaskRunner single = null;
+        try {
+            final PriorityTaskRunner runner = new PriorityTaskRunner(4);
+            taskRunner = runner;
+            runner.enableWorkStealing(0);
+            runner.start();
+            runner.scheduleTask(new TestTask(1,100,commenceSignal,null) {
+                @Override
+                public void run() {
+                    super.run();
+                    for (int i = 1; i <= 20; i++) {
+                        runner.scheduleTask(new TestTask(i,100 + i,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+                    }
+                }
+            }, new TestTaskNotificationListener(finishSignal));
+            finishSignal.await();
+            try {
+                assert commencedTaskIds.get(0) == 100;
+                assert getNumCommencedTasks() == 21;
+                assert runner.numTasks() == 0;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            // tasks cancelled in a local queue are purged from it, one task thread so none are stolen
+            final PriorityTaskRunner purging = new PriorityTaskRunner(1);
+            single = purging;
+            purging.enableWorkStealing(0);
+            purging.start();
+            AtomicInteger queued = new AtomicInteger(-1);
+            purging.scheduleTask(new QuietTask(0, 300) {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        purging.scheduleTaskWithHandle(new QuietTask(1, 400 + i), null).cancel();
+                    }
+                    queued.set(purging.numTasks());
+                }
+            }, new CountingListener(purgeSignal));
+            purgeSignal.await();
+            try {
+                assert queued.get() >= 0 && queued.get() <= 64;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest11 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest11 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+            if (single != null) {
+                single.stop();
+            }
+        }
+    }
+
+    //check if a batch of tasks is queued and run in priority order
+    public void test12() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(6);
+        CountDownLatch finishSignal = new CountDownLatch(6);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.scheduleTask(new TestTask(9,100,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTasks(Arrays.asList(new TestTask(15,200,commenceSignal,null),
+                    new TestTask(3,300,commenceSignal,null),
+                    new TestTask(12,400,commenceSignal,null),
+                    new TestTask(20,500,commenceSignal,null),
+                    new TestTask(1,600,commenceSignal,null)), new TestTaskNotificationListener(finishSignal));
+            try {
+                assert taskRunner.numTasks() == 6;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.start();
+            finishSignal.await();
+            try {
+                assert taskIdsSame(commencedTaskIds, Arrays.asList(600, 300, 100, 400, 200, 500), true);
+                assert taskRunner.numTasks() == 0;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest12 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest12 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+    //check if the virtual thread runner admits tasks in priority order up to its concurrency limit
+    public void test13() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(2);
+        CountDownLatch finishSignal = new CountDownLatch(4);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        VirtualThreadPriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new VirtualThreadPriorityTaskRunner(2);
+            taskRunner.scheduleTask(new TestTask(15,100,commenceSignal,blockSignal), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(12,200,commenceSignal,blockSignal), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(5,300,commenceSignal,blockSignal), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new TestTask(11,400,commenceSignal,blockSignal), new TestTaskNotificationListener(finishSignal));
+            taskRunner.start();
+            commenceSignal.await();
+            try {
+                assert taskIdsSame(commencedTaskIds, Arrays.asList(300, 400), false);
+                assert taskRunner.numTasks() == 2;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            blockSignal.countDown();
+            finishSignal.await();
+            try {
+                assert taskIdsSame(finishedTaskIds, Arrays.asList(100, 200, 300, 400), false);
+                assert taskRunner.numTasks() == 0;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            // stop() keeps the journal open until the running tasks have finished: task 500 fills
+            // a segment of its own, which is deleted after it has completed
+            Path dir = Files.createTempDirectory("journal");
+            CountDownLatch runningSignal = new CountDownLatch(1);
+            CountDownLatch releaseSignal = new CountDownLatch(1);
+            CountDownLatch quietSignal = new CountDownLatch(1);
+            taskRunner = new VirtualThreadPriorityTaskRunner(2);
+            taskRunner.enableJournal(dir, new QuietTaskSerializer() {
+                @Override
+                public byte[] serialize(Task t) {
+                    return t.getId() == 500 ? new byte[4064] : super.serialize(t);
+                }
+            }, null, 4096, 1, TimeUnit.MILLISECONDS);
+            taskRunner.start();
+            taskRunner.scheduleTask(new TestTask(0,500,runningSignal,releaseSignal), null);
+            runningSignal.await();
+            taskRunner.scheduleTask(new QuietTask(0,600), new CountingListener(quietSignal));
+            quietSignal.await();
+            releaseLater(releaseSignal);
+            taskRunner.stop();
+            try {
+                assert dir.toFile().list().length == 1;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest13 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest13 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+    //check if submit() completes futures and executeTask() can be called from several threads at once
+    public void test14() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(4);
+        CountDownLatch finishSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch busySignal = new CountDownLatch(1);
+        CountDownLatch releaseSignal = new CountDownLatch(1);
+        PriorityTaskRunner taskRunner = null;
+        PriorityTaskRunner single = null;
+        try {
+            final PriorityTaskRunner runner = new PriorityTaskRunner(3);
+            taskRunner = runner;
+            runner.start();
+            CompletableFuture<Task> future = runner.submit(new TestTask(10,100,commenceSignal,null), new TestTaskNotificationListener(finishSignal));
+            CompletableFuture<Task> failed = runner.submit(new SampleTask(10,200) {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("task failure");
+                }
+            });
+            try {
+                assert future.get().getId() == 100;
+                assert failed.handle((t, e) -> e).get() instanceof IllegalStateException;
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            CountDownLatch callerSignal = new CountDownLatch(1);
+            Thread caller = new Thread(() -> runner.executeTask(new TestTask(11,300,callerSignal,blockSignal,true)));
+            caller.start();
+            callerSignal.await();
+            runner.executeTask(new TestTask(12,400,commenceSignal,null,true));
+            try {
+                assert caller.isAlive();
+                assert finishedTaskIds.contains(400) && !finishedTaskIds.contains(300);
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            blockSignal.countDown();
+            caller.join();
+
+            // a caller interrupted while waiting gives up on its task and keeps its interrupt
+            final PriorityTaskRunner busy = new PriorityTaskRunner(1);
+            single = busy;
+            busy.start();
+            busy.scheduleTask(new TestTask(0, 500, busySignal, releaseSignal), null);
+            busySignal.await();
+            AtomicBoolean ran = new AtomicBoolean();
+            AtomicBoolean interruptKept = new AtomicBoolean();
+            Thread interrupted = new Thread(() -> {
+                busy.executeTask(new QuietTask(0, 600) {
+                    @Override
+                    public void run() {
+                        ran.set(true);
+                    }
+                });
+                interruptKept.set(Thread.currentThread().isInterrupted());
+            });
+            interrupted.start();
+            // parked in executeTask, waiting for the busy task thread
+            for (int i = 0; i < 5000 && interrupted.getState() != Thread.State.WAITING; i++) {
+                sleep(1);
+            }
+            interrupted.interrupt();
+            interrupted.join(5000);
+            releaseSignal.countDown();
+            busy.executeTask(new QuietTask(0, 700));// would run after the abandoned task
+            try {
+                assert ! interrupted.isAlive() && interruptKept.get();
+                assert ! ran.get();
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest14 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest14 failed\n");
+        } finally {
+            releaseSignal.countDown();
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+            if (single != null) {
+                single.stop();
+            }
+        }
+    }
+
+    //check if asynchronous notification keeps task threads off slow listeners and keeps event order
+    public void test15() {
+        boolean passed = true;
+        clear();
+        List<TaskEvent> events = new ArrayList<>();
+        BatchTaskNotificationListener batchListener = new BatchTaskNotificationListener() {
+            @Override
+            public void onTaskEvents(List<TaskEvent> batch) {
+                events.addAll(batch);
+            }
+            @Override
+            public void onTaskCommence(Task t) {
+            }
+            @Override
+            public void onTaskCompletion(Task t) {
+            }
+        };
+        // blocks the notification thread until released
+        CountDownLatch listenerRelease = new CountDownLatch(1);
+        TaskNotificationListener slowListener = new TaskNotificationListener() {
+            @Override
+            public void onTaskCommence(Task t) {
+                try {
+                    listenerRelease.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+            @Override
+            public void onTaskCompletion(Task t) {
+            }
+        };
+        List<String> chain = new ArrayList<>();
+        TaskNotificationListener chainListener = new TaskNotificationListener() {
+            @Override
+            public void onTaskCommence(Task t) {
+                chain.add("commence " + t.getId());
+            }
+            @Override
+            public void onTaskCompletion(Task t) {
+                chain.add("completion " + t.getId());
+            }
+        };
+        PriorityTaskRunner taskRunner = null;
+        PriorityTaskRunner chained = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.enableAsyncNotification(4, NotificationOverflowPolicy.SPILL);
+            taskRunner.start();
+            List<CompletableFuture<Task>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                futures.add(taskRunner.submit(new QuietTask(i, 100 + i), slowListener));
+            }
+            for (int i = 0; i < 20; i++) {
+                futures.add(taskRunner.submit(new QuietTask(i, 200 + i), batchListener));
+            }
+            boolean ranAhead = true;
+            try {
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(10, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                ranAhead = false;
+            }
+            listenerRelease.countDown();
+            try {
+                assert ranAhead;
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+            taskRunner = null;
+
+            // each task is submitted once the previous one has completed, on whichever task
+            // thread ran it, so a listener shared across threads must see them one after another
+            chained = new PriorityTaskRunner(4);
+            chained.enableAsyncNotification(4, NotificationOverflowPolicy.SPILL);
+            chained.start();
+            CompletableFuture<Task> last = CompletableFuture.completedFuture(null);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                int id = i;
+                PriorityTaskRunner runner = chained;
+                last = last.thenCompose(t -> runner.submit(new QuietTask(0, id), chainListener));
+                expected.add("commence " + i);
+                expected.add("completion " + i);
+            }
+            last.get(10, TimeUnit.SECONDS);
+            chained.stop();
+            chained = null;
+            try {
+                assert chain.equals(expected);
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            try {
+                assert events.size() == 40;
+                for (int i = 0; i < events.size(); i += 2) {
+                    assert events.get(i).getType() == TaskEvent.Type.COMMENCE;
+                    assert events.get(i + 1).getType() == TaskEvent.Type.COMPLETION;
+                    assert events.get(i).getTask() == events.get(i + 1).getTask();
+                }
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest15 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest15 failed\n");
+        } finally {
+            listenerRelease.countDown();
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+            if (chained != null) {
+                chained.stop();
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //check if metrics count queued and run tasks per priority band
+    public void test16() {
+        boolean passed = true;
+        clear();
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(2);
+            taskRunner.enableMetrics(10, 4);
+            // listener time is not run time
+            TaskNotificationListener slowListener = new TaskNotificationListener() {
+                @Override
+                public void onTaskCommence(Task t) {
+                    sleep(50);
+                }
+                @Override
+                public void onTaskCompletion(Task t) {
+                    sleep(50);
+                }
+            };
+            List<CompletableFuture<Task>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(taskRunner.submit(new QuietTask(i * 5, 100 + i), i == 0 ? slowListener : null));
+            }
+            taskRunner.scheduleTaskWithHandle(new QuietTask(0, 200), null).cancel();
+            MetricsSnapshot before = taskRunner.metricsSnapshot();
+            taskRunner.start();
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+            MetricsSnapshot after = taskRunner.metricsSnapshot();
+            try {
+                assert before.getQueueDepth() == 11 && before.getDequeued() == 0 && before.getRemoved() == 1;
+                assert after.getEnqueued() == 11 && after.getDequeued() == 10 && after.getRemoved() == 1;
+                assert after.getQueueDepth() == 0 && after.getQueueDepthHighWaterMark() == 11;
+                assert after.getWaitTime(0).getCount() == 2 && after.getWaitTime(3).getCount() == 4;
+                assert after.getRunTime(1).getCount() == 2;
+                assert after.getRunTime(0).getValueAtPercentile(100) < TimeUnit.MILLISECONDS.toNanos(50);
+                assert after.getBusyNanos() < TimeUnit.MILLISECONDS.toNanos(50);
+                assert after.getWaitTime(3).getValueAtPercentile(100) >= after.getWaitTime(3).getValueAtPercentile(50);
+                assert after.getDequeueRate(before) > 0;
+                points += 4;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest16 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest16 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+    //check if a bounded runner applies its admission policy when full
+    public void test17() {
+        boolean passed = true;
+        clear();
+        List<Integer> rejectedIds = new ArrayList<>();
+        RejectedTaskHandler handler = (t, listener) -> rejectedIds.add(t.getId());
+        CountDownLatch finishSignal = new CountDownLatch(100);
+        PriorityTaskRunner failFast = null;
+        PriorityTaskRunner evicting = null;
+        PriorityTaskRunner shedding = null;
+        try {
+            failFast = new PriorityTaskRunner(1);
+            failFast.setCapacity(2, AdmissionPolicy.FAIL_FAST, null);
+            failFast.scheduleTask(new QuietTask(5, 100), new TestTaskNotificationListener(finishSignal));
+            failFast.scheduleTask(new QuietTask(10, 200), new TestTaskNotificationListener(finishSignal));
+            try {
+                failFast.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal));
+                passed = false;
+            } catch (RejectedExecutionException e) {
+                points += 1;
+            }
+
+            evicting = new PriorityTaskRunner(1);
+            evicting.setCapacity(2, AdmissionPolicy.EVICT_LOWEST, handler);
+            evicting.scheduleTask(new QuietTask(5, 100), new TestTaskNotificationListener(finishSignal));
+            evicting.scheduleTask(new QuietTask(10, 200), new TestTaskNotificationListener(finishSignal));
+            evicting.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal));
+            evicting.scheduleTask(new QuietTask(20, 400), new TestTaskNotificationListener(finishSignal));
+            try {
+                assert rejectedIds.equals(Arrays.asList(200, 400));
+                assert evicting.numTasks() == 2;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            rejectedIds.clear();
+            shedding = new PriorityTaskRunner(1);
+            shedding.setCapacity(2, AdmissionPolicy.SHED_BY_DEADLINE, handler);
+            shedding.scheduleTaskWithDeadline(new QuietTask(5, 100), new TestTaskNotificationListener(finishSignal), System.nanoTime() - 1);
+            shedding.scheduleTask(new QuietTask(10, 200), new TestTaskNotificationListener(finishSignal));
+            shedding.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal));
+            shedding.scheduleTaskWithDeadline(new QuietTask(1, 400), new TestTaskNotificationListener(finishSignal), System.nanoTime() + 50_000_000L);
+            try {
+                assert rejectedIds.equals(Arrays.asList(100, 400));
+                assert shedding.numTasks() == 2;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            PriorityTaskRunner blocking = new PriorityTaskRunner(1);
+            blocking.setCapacity(1, AdmissionPolicy.BLOCK, null);
+            CountDownLatch commenceSignal = new CountDownLatch(1);
+            CountDownLatch blockSignal = new CountDownLatch(1);
+            blocking.start();
+            blocking.scheduleTask(new TestTask(5, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            blocking.scheduleTask(new QuietTask(5, 600), new TestTaskNotificationListener(finishSignal));
+            Thread producer = new Thread(() -> blocking.scheduleTask(new QuietTask(5, 700), new TestTaskNotificationListener(finishSignal)));
+            producer.start();
+            producer.join(200);
+            try {
+                assert producer.isAlive();
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            blockSignal.countDown();
+            producer.join();
+            blocking.stop();
+            System.out.println("\nTest17 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest17 failed\n");
+        } finally {
+            for (PriorityTaskRunner runner : Arrays.asList(failFast, evicting, shedding)) {
+                if (runner != null) {
+                    runner.stop();
+                }
+            }
+        }
+    }
+
+
+    //check if a low priority task waiting long enough is aged ahead of newer urgent tasks
+    public void test18() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(4);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            AgingTaskQueue queue = new AgingTaskQueue(0, 3, 25, TimeUnit.MILLISECONDS);
+            taskRunner = new PriorityTaskRunner(1, queue);
+            taskRunner.start();
+            taskRunner.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            taskRunner.scheduleTask(new QuietTask(3, 100), new TestTaskNotificationListener(finishSignal));
+            sleep(queue.maxPromotionDelay(TimeUnit.MILLISECONDS) + 25);
+            taskRunner.scheduleTask(new QuietTask(0, 200), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal));
+            blockSignal.countDown();
+            finishSignal.await();
+            try {
+                assert queue.maxPromotionDelay(TimeUnit.MILLISECONDS) == 75;
+                assert commencedTaskIds.equals(Arrays.asList(500, 100, 200, 300));
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest18 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest18 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if tasks run earliest deadline first and expired tasks are dropped or demoted
+    public void test19() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(8);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1, ExpiredTaskPolicy.DROP);
+            taskRunner.start();
+            taskRunner.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            long now = System.nanoTime();
+            taskRunner.scheduleTask(new QuietDeadlineTask(1, 100, now + 10_000_000_000L), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietDeadlineTask(9, 200, now + 5_000_000_000L), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietDeadlineTask(5, 300, now + 5_000_000_000L), new TestTaskNotificationListener(finishSignal));
+            CompletableFuture<Task> dropped = taskRunner.submit(new QuietDeadlineTask(0, 400, now + 1_000_000L));
+            taskRunner.scheduleTask(new QuietTask(0, 600), new TestTaskNotificationListener(finishSignal));
+            sleep(20);
+            blockSignal.countDown();
+            while (finishSignal.getCount() > 3) {
+                sleep(1);
+            }
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(500, 300, 200, 100, 600));
+                assert dropped.isCompletedExceptionally();
+                assert taskRunner.deadlinesMet() == 3;
+                assert taskRunner.deadlinesMissed() == 1;
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            clear();
+            taskRunner = new PriorityTaskRunner(1, ExpiredTaskPolicy.DEPRIORITIZE);
+            now = System.nanoTime();
+            taskRunner.scheduleTask(new QuietDeadlineTask(0, 700, now - 1), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietDeadlineTask(5, 800, now + 5_000_000_000L), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietTask(9, 900), new TestTaskNotificationListener(finishSignal));
+            taskRunner.start();
+            finishSignal.await();
+            taskRunner.stop();// the counters are updated after the completion notification
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(800, 900, 700));
+                assert taskRunner.deadlinesMissed() == 1;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest19 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest19 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if delayed and periodic tasks are queued when due
+    public void test20() {
+        boolean passed = true;
+        clear();
+        CountDownLatch finishSignal = new CountDownLatch(3);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(2);
+            taskRunner.start();
+            long startNanos = System.nanoTime();
+            taskRunner.scheduleTask(new QuietTask(1, 100), new TestTaskNotificationListener(finishSignal), 60, TimeUnit.MILLISECONDS);
+            taskRunner.scheduleTask(new QuietTask(1, 200), new TestTaskNotificationListener(finishSignal), 20, TimeUnit.MILLISECONDS);
+            taskRunner.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal), 0, TimeUnit.MILLISECONDS);
+            int delayed = taskRunner.numDelayedTasks();
+            finishSignal.await();
+            try {
+                assert delayed == 2;
+                assert commencedTaskIds.equals(Arrays.asList(300, 200, 100));
+                assert System.nanoTime() - startNanos >= TimeUnit.MILLISECONDS.toNanos(60);
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            CountDownLatch fixedRate = new CountDownLatch(5);
+            CountDownLatch fixedDelay = new CountDownLatch(5);
+            taskRunner.scheduleAtFixedRate(new QuietTask(1, 400), new CountingListener(fixedRate), 0, 10, TimeUnit.MILLISECONDS);
+            taskRunner.scheduleWithFixedDelay(new QuietTask(1, 500), new CountingListener(fixedDelay), 5, 10, TimeUnit.MILLISECONDS);
+            int timers = 20000;
+            CountDownLatch timerSignal = new CountDownLatch(timers);
+            Random random = new Random(1);
+            for (int i = 0; i < timers; i++) {
+                taskRunner.scheduleTask(new QuietTask(i % 10, 1000 + i), new CountingListener(timerSignal), random.nextInt(300), TimeUnit.MILLISECONDS);
+            }
+            boolean allRan = timerSignal.await(5, TimeUnit.SECONDS)
+                    && fixedRate.await(5, TimeUnit.SECONDS) && fixedDelay.await(5, TimeUnit.SECONDS);
+            try {
+                assert allRan;
+                assert taskRunner.numDelayedTasks() <= 2;// only the periodic tasks are left
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest20 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest20 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if queued tasks can be cancelled and reprioritised through their handles
+    public void test21() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(3);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.start();
+            taskRunner.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            TaskHandle h1 = taskRunner.scheduleTaskWithHandle(new QuietTask(5, 100), new TestTaskNotificationListener(finishSignal));
+            TaskHandle h2 = taskRunner.scheduleTaskWithHandle(new QuietTask(6, 200), new TestTaskNotificationListener(finishSignal));
+            TaskHandle h3 = taskRunner.scheduleTaskWithHandle(new QuietTask(7, 300), new TestTaskNotificationListener(finishSignal));
+            boolean cancelled = h1.cancel();
+            boolean reprioritised = h3.setPriority(1);
+            blockSignal.countDown();
+            finishSignal.await();
+            try {
+                assert cancelled && h1.isCancelled();
+                assert reprioritised && h3.getPriority() == 1;
+                assert commencedTaskIds.equals(Arrays.asList(500, 300, 200));
+                assert ! h2.cancel();
+                assert ! h3.setPriority(0);
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            int tasks = 10000;
+            CountDownLatch runSignal = new CountDownLatch(tasks / 2);
+            taskRunner = new PriorityTaskRunner(2);
+            List<TaskHandle> handles = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                handles.add(taskRunner.scheduleTaskWithHandle(new QuietTask(i % 10, 1000 + i), new CountingListener(runSignal)));
+            }
+            for (int round = 0; round < 5; round++) {
+                for (TaskHandle h : handles) {
+                    h.setPriority(h.getPriority() + 1);
+                }
+            }
+            for (int i = 0; i < tasks; i += 2) {
+                handles.get(i).cancel();
+            }
+            taskRunner.start();
+            boolean allRan = runSignal.await(5, TimeUnit.SECONDS);
+            sleep(50);
+            try {
+                assert allRan;
+                assert runSignal.getCount() == 0;
+                assert taskRunner.numTasks() == 0;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest21 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest21 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if the task thread pool grows and shrinks on request and under the adaptive controller
+    public void test22() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(5);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(5);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(2);
+            taskRunner.start();
+            taskRunner.setThreadCount(5);
+            int grown = taskRunner.getThreadCount();
+            for (int i = 0; i < 5; i++) {
+                taskRunner.scheduleTask(new TestTask(1, 100 + i, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            }
+            boolean allRunning = commenceSignal.await(5, TimeUnit.SECONDS);
+            blockSignal.countDown();
+            finishSignal.await();
+            taskRunner.setThreadCount(1);
+            for (int i = 0; i < 200 && taskRunner.getThreadCount() > 1; i++) {
+                sleep(10);
+            }
+            try {
+                assert grown == 5;
+                assert allRunning;
+                assert taskRunner.getThreadCount() == 1;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            int tasks = 40;
+            CountDownLatch runSignal = new CountDownLatch(tasks);
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.enableAdaptiveConcurrency(1, 8, 20, TimeUnit.MILLISECONDS);
+            taskRunner.start();
+            for (int i = 0; i < tasks; i++) {
+                taskRunner.scheduleTask(new QuietTask(1, 200 + i) {
+                    @Override
+                    public void run() {
+                        sleep(20);
+                    }
+                }, new CountingListener(runSignal));
+            }
+            int maxThreads = 1;
+            while (! runSignal.await(5, TimeUnit.MILLISECONDS)) {
+                maxThreads = Math.max(maxThreads, taskRunner.getThreadCount());
+            }
+            for (int i = 0; i < 300 && taskRunner.getThreadCount() > 1; i++) {
+                sleep(10);
+            }
+            try {
+                assert maxThreads > 1;
+                assert taskRunner.getThreadCount() == 1;
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest22 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest22 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if stop drains, partially drains or returns the queued tasks and interrupts at the timeout
+    public void test23() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(100);
+        try {
+            PriorityTaskRunner draining = new PriorityTaskRunner(1);
+            draining.start();
+            draining.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            draining.scheduleTask(new QuietTask(1, 100), new TestTaskNotificationListener(finishSignal));
+            draining.scheduleTask(new QuietTask(9, 200), new TestTaskNotificationListener(finishSignal));
+            releaseLater(blockSignal);
+            List<TaskEntry> unrun = draining.stop(ShutdownMode.DRAIN_ALL, 5, TimeUnit.SECONDS);
+            try {
+                assert unrun.isEmpty();
+                assert finishedTaskIds.equals(Arrays.asList(500, 100, 200));
+                draining.scheduleTask(new QuietTask(1, 300), new TestTaskNotificationListener(finishSignal));
+                passed = false;
+            } catch (RejectedExecutionException e) {
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            clear();
+            commenceSignal = new CountDownLatch(1);
+            blockSignal = new CountDownLatch(1);
+            PriorityTaskRunner partial = new PriorityTaskRunner(1);
+            partial.start();
+            partial.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new TestTaskNotificationListener(finishSignal));
+            commenceSignal.await();
+            partial.scheduleTask(new QuietTask(1, 100), new TestTaskNotificationListener(finishSignal));
+            partial.scheduleTask(new QuietTask(9, 200), new TestTaskNotificationListener(finishSignal));
+            releaseLater(blockSignal);
+            unrun = partial.stop(ShutdownMode.DRAIN_ABOVE_PRIORITY, 5, 5, TimeUnit.SECONDS);
+            try {
+                assert unrun.size() == 1 && unrun.get(0).getTask().getId() == 200;
+                assert unrun.get(0).getListener() != null;
+                assert finishedTaskIds.equals(Arrays.asList(500, 100));
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            clear();
+            PriorityTaskRunner immediate = new PriorityTaskRunner(1);
+            CountDownLatch stuckSignal = new CountDownLatch(1);
+            boolean[] interrupted = new boolean[1];
+            immediate.start();
+            immediate.scheduleTask(new QuietTask(0, 500) {
+                @Override
+                public void run() {
+                    stuckSignal.countDown();
+                    try {
+                        new CountDownLatch(1).await();// never released
+                    } catch (InterruptedException e) {
+                        interrupted[0] = true;
+                    }
+                }
+            }, null);
+            stuckSignal.await();
+            immediate.scheduleTask(new QuietTask(1, 100), new TestTaskNotificationListener(finishSignal));
+            CompletableFuture<Task> future = immediate.submit(new QuietTask(2, 200));
+            long startNanos = System.nanoTime();
+            unrun = immediate.stop(ShutdownMode.IMMEDIATE, 100, TimeUnit.MILLISECONDS);
+            long stopNanos = System.nanoTime() - startNanos;
+            sleep(50);
+            try {
+                assert unrun.size() == 2;
+                assert future.isCancelled();
+                assert stopNanos < TimeUnit.SECONDS.toNanos(2);
+                assert interrupted[0];
+                assert getNumCommencedTasks() == 0;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest23 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest23 failed\n");
+        }
+    }
+
+    private static void releaseLater(CountDownLatch signal) {
+        new Thread(() -> {
+            sleep(50);
+            signal.countDown();
+        }).start();
+    }
+
+
+    //check if queued tasks are recovered from the journal after a crash and completed ones are not
+    public void test24() {
+        boolean passed = true;
+        clear();
+        CountDownLatch finishSignal = new CountDownLatch(3);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            Path dir = Files.createTempDirectory("journal");
+            PriorityTaskRunner crashed = new PriorityTaskRunner(1);
+            crashed.enableJournal(dir, new QuietTaskSerializer(), null);
+            crashed.scheduleTask(new QuietTask(3, 100), null);
+            crashed.scheduleTask(new QuietTask(1, 200), null);
+            crashed.scheduleTasks(Arrays.asList(new QuietTask(2, 300)), null);
+            crashed.scheduleTaskWithHandle(new QuietTask(0, 400), null).cancel();
+            // never started nor stopped, as if the process had died
+
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.enableJournal(dir, new QuietTaskSerializer(), new TestTaskNotificationListener(finishSignal));
+            taskRunner.start();
+            finishSignal.await();
+            taskRunner.stop();
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(200, 300, 100));
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.enableJournal(dir, new QuietTaskSerializer(), null);
+            taskRunner.start();
+            try {
+                assert taskRunner.numTasks() == 0;
+                assert dir.toFile().list().length == 1;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            int tasks = 500;
+            crashed = new PriorityTaskRunner(1);
+            crashed.enableJournal(dir, new QuietTaskSerializer(), null, 4096, 1, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < tasks; i++) {
+                crashed.scheduleTask(new QuietTask(i % 7, 1000 + i), null);
+            }
+            CountDownLatch runSignal = new CountDownLatch(tasks);
+            taskRunner = new PriorityTaskRunner(2);
+            taskRunner.enableJournal(dir, new QuietTaskSerializer(), new CountingListener(runSignal), 4096, 1, TimeUnit.MILLISECONDS);
+            taskRunner.start();
+            boolean allRan = runSignal.await(5, TimeUnit.SECONDS);
+            taskRunner.stop();
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.enableJournal(dir, new QuietTaskSerializer(), null, 4096, 1, TimeUnit.MILLISECONDS);
+            try {
+                assert allRan;
+                assert dir.toFile().list().length == 1;// only the new empty segment
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            // a task too large for a segment is refused without using up the capacity
+            PriorityTaskRunner bounded = new PriorityTaskRunner(1);
+            bounded.setCapacity(1, AdmissionPolicy.FAIL_FAST, null);
+            bounded.enableJournal(Files.createTempDirectory("journal"), new QuietTaskSerializer() {
+                @Override
+                public byte[] serialize(Task t) {
+                    return t.getId() == 600 ? new byte[8192] : super.serialize(t);
+                }
+            }, null, 4096, 1, TimeUnit.MILLISECONDS);
+            boolean refused = false;
+            try {
+                bounded.scheduleTask(new QuietTask(0, 600), null);
+            } catch (IllegalArgumentException e) {
+                refused = true;
+            }
+            boolean admitted = true;
+            try {
+                bounded.scheduleTask(new QuietTask(0, 601), null);
+            } catch (RejectedExecutionException e) {
+                admitted = false;
+            }
+            bounded.stop();
+            try {
+                assert refused && admitted;
+                assert bounded.numTasks() == 1;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest24 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest24 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if tasks with an affinity key stay on their group and are stolen only while the group is busy
+    public void test25() {
+        boolean passed = true;
+        clear();
+        PriorityTaskRunner taskRunner = new PriorityTaskRunner(4);
+        taskRunner.enableAffinityGroups(2);
+        taskRunner.start();
+        try {
+            CountDownLatch released = new CountDownLatch(0);
+            List<String> group0 = new ArrayList<>();
+            List<String> group1 = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                CountDownLatch done = new CountDownLatch(2);
+                taskRunner.scheduleTaskWithAffinity(new ThreadRecordingTask(i, group0, released), new CountingListener(done), 0);
+                taskRunner.scheduleTaskWithAffinity(new ThreadRecordingTask(i, group1, released), new CountingListener(done), 1);
+                done.await();
+            }
+            try {
+                for (String name : group0) {
+                    assert name.endsWith("(group 0)");
+                }
+                for (String name : group1) {
+                    assert name.endsWith("(group 1)");
+                }
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            CountDownLatch release = new CountDownLatch(1);
+            CountDownLatch busy = new CountDownLatch(2);
+            List<String> blocked = new ArrayList<>();
+            taskRunner.scheduleTaskWithAffinity(new ThreadRecordingTask(100, blocked, release), new CountingListener(busy), 0);
+            taskRunner.scheduleTaskWithAffinity(new ThreadRecordingTask(101, blocked, release), new CountingListener(busy), 0);
+            while (true) {
+                synchronized (blocked) {
+                    if (blocked.size() == 2) {
+                        break;
+                    }
+                }
+                sleep(1);
+            }
+            CountDownLatch stolen = new CountDownLatch(1);
+            List<String> thief = new ArrayList<>();
+            taskRunner.scheduleTaskWithAffinity(new ThreadRecordingTask(102, thief, released), new CountingListener(stolen), 0);
+            boolean ran = stolen.await(5, TimeUnit.SECONDS);
+            release.countDown();
+            busy.await();
+            try {
+                assert ran;
+                assert thief.get(0).endsWith("(group 1)");
+                assert taskRunner.numTasks() == 0;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest25 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest25 failed\n");
+        } finally {
+            taskRunner.stop();
+        }
+    }
+
+
+    //check if graph tasks run after their dependencies and inherit the priority of urgent descendants
+    public void test26() {
+        boolean passed = true;
+        clear();
+        PriorityTaskRunner taskRunner = new PriorityTaskRunner(1);
+        taskRunner.start();
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            taskRunner.scheduleTask(new ThreadRecordingTask(0, new ArrayList<>(), busy), null);
+            Task a = new QuietTask(9, 1);
+            Task b = new QuietTask(9, 2);
+            Task c = new QuietTask(9, 3);
+            Task d = new QuietTask(1, 4);
+            Task other = new QuietTask(5, 5);
+            TaskGraph graph = new TaskGraph()
+                    .addDependency(a, b)
+                    .addDependency(a, c)
+                    .addDependency(b, d)
+                    .addDependency(c, d)
+                    .add(other);
+            CompletableFuture<Void> done = taskRunner.scheduleGraph(graph, new TestTaskNotificationListener(new CountDownLatch(5)));
+            busy.countDown();
+            done.get(5, TimeUnit.SECONDS);
+            try {
+                // b and c inherit priority 1 from d, the independent task runs last
+                assert commencedTaskIds.equals(Arrays.asList(1, 2, 3, 4, 5));
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            clear();
+            Task failing = new SampleTask(0, 6) {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("test failure");
+                }
+            };
+            CompletableFuture<Void> failed = taskRunner.scheduleGraph(new TaskGraph().addDependency(failing, new QuietTask(0, 7)),
+                    new TestTaskNotificationListener(new CountDownLatch(1)));
+            boolean cycleRejected = false;
+            try {
+                taskRunner.scheduleGraph(new TaskGraph().addDependency(a, b).addDependency(b, a), null);
+            } catch (IllegalArgumentException e) {
+                cycleRejected = true;
+            }
+            try {
+                failed.get(5, TimeUnit.SECONDS);
+                passed = false;
+            } catch (ExecutionException e) {
+                assert e.getCause() instanceof IllegalStateException;
+            }
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(6));
+                assert cycleRejected;
+                assert taskRunner.scheduleGraph(new TaskGraph(), null).isDone();
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            // a child refused while being scheduled from its parent's task thread fails the graph
+            PriorityTaskRunner journaled = new PriorityTaskRunner(1);
+            journaled.enableJournal(Files.createTempDirectory("journal"), new QuietTaskSerializer() {
+                @Override
+                public byte[] serialize(Task t) {
+                    return t.getId() == 9 ? new byte[8192] : super.serialize(t);
+                }
+            }, null, 4096, 1, TimeUnit.MILLISECONDS);
+            journaled.start();
+            CompletableFuture<Void> refused = journaled.scheduleGraph(new TaskGraph().addDependency(new QuietTask(0, 8), new QuietTask(0, 9)), null);
+            Throwable refusal = null;
+            try {
+                refused.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException e) {
+                refusal = e.getCause();
+            } catch (TimeoutException e) {
+                // never completed
+            }
+            journaled.stop();
+            try {
+                assert refusal instanceof IllegalArgumentException;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest26 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest26 failed\n");
+        } finally {
+            taskRunner.stop();
+        }
+    }
+
+
+    //check if tenants of a fair share queue take turns by weight whatever the priorities of their tasks
+    public void test27() {
+        boolean passed = true;
+        clear();
+        FairShareTaskQueue queue = new FairShareTaskQueue(1);
+        queue.setWeight("b", 2);
+        PriorityTaskRunner taskRunner = new PriorityTaskRunner(1, queue);
+        taskRunner.start();
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            taskRunner.scheduleTask(new ThreadRecordingTask(0, new ArrayList<>(), busy), null);
+            sleep(50);
+            CountDownLatch finishSignal = new CountDownLatch(10);
+            for (int i = 1; i <= 6; i++) {
+                taskRunner.scheduleTaskForTenant(new QuietTask(0, i), new TestTaskNotificationListener(finishSignal), "a");
+            }
+            for (int i = 11; i <= 14; i++) {
+                taskRunner.scheduleTaskForTenant(new QuietTask(10, i), new TestTaskNotificationListener(finishSignal), "b");
+            }
+            Map<Object, TenantSnapshot> queued = new HashMap<>();
+            for (TenantSnapshot snapshot : queue.tenantSnapshots()) {
+                queued.put(snapshot.getTenant(), snapshot);
+            }
+            busy.countDown();
+            finishSignal.await();
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(1, 11, 12, 2, 13, 14, 3, 4, 5, 6));
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            // drained tenants keep their weight and counters
+            CountDownLatch busyAgain = new CountDownLatch(1);
+            taskRunner.scheduleTask(new ThreadRecordingTask(0, new ArrayList<>(), busyAgain), null);
+            sleep(50);
+            List<TenantSnapshot> drained = queue.tenantSnapshots();
+            taskRunner.scheduleTaskForTenant(new QuietTask(10, 15), null, "b");
+            List<TenantSnapshot> back = queue.tenantSnapshots();
+            busyAgain.countDown();
+            try {
+                assert queued.get("a").getEnqueued() == 6 && queued.get("a").getQueueDepth() == 6;
+                assert queued.get("b").getEnqueued() == 4 && queued.get("b").getWeight() == 2;
+                assert queued.get(null).getEnqueued() == 1;
+                Map<Object, TenantSnapshot> idle = new HashMap<>();
+                for (TenantSnapshot snapshot : drained) {
+                    idle.put(snapshot.getTenant(), snapshot);
+                }
+                assert idle.size() == 3;
+                assert idle.get("a").getDequeued() == 6 && idle.get("a").getQueueDepth() == 0;
+                assert idle.get("b").getDequeued() == 4 && idle.get("b").getWeight() == 2;
+                assert back.size() == 3;
+                for (TenantSnapshot snapshot : back) {
+                    if ("b".equals(snapshot.getTenant())) {
+                        assert snapshot.getEnqueued() == 5 && snapshot.getQueueDepth() == 1 && snapshot.getWeight() == 2;
+                    }
+                }
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            taskRunner.stop();
+
+            // tenants idle for longer than the idle timeout are forgotten when a tenant comes in
+            queue = new FairShareTaskQueue(1, 1, TimeUnit.MILLISECONDS);
+            taskRunner = new PriorityTaskRunner(1, queue);
+            taskRunner.start();
+            CountDownLatch idleSignal = new CountDownLatch(1);
+            taskRunner.scheduleTaskForTenant(new QuietTask(0, 16), new CountingListener(idleSignal), "c");
+            idleSignal.await();
+            sleep(20);
+            CountDownLatch newSignal = new CountDownLatch(1);
+            taskRunner.scheduleTaskForTenant(new QuietTask(0, 17), new CountingListener(newSignal), "d");
+            newSignal.await();
+            try {
+                List<TenantSnapshot> snapshots = queue.tenantSnapshots();
+                assert snapshots.size() == 1 && snapshots.get(0).getTenant().equals("d");
+                assert snapshots.get(0).getDequeued() == 1;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest27 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest27 failed\n");
+        } finally {
+            taskRunner.stop();
+        }
+    }
+
+
+    //check if a pooling runner on a primitive heap keeps priority order and recycles entries safely
+    public void test28() {
+        boolean passed = true;
+        clear();
+        PriorityTaskRunner taskRunner = new PriorityTaskRunner(1, new PrimitiveHeapTaskQueue(2));
+        taskRunner.enableEntryPooling(16);
+        taskRunner.start();
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            taskRunner.scheduleTask(new ThreadRecordingTask(0, new ArrayList<>(), busy), null);
+            sleep(50);
+            CountDownLatch finishSignal = new CountDownLatch(6);
+            int[] priorities = {5, 1, 3, 1, 0, 5};
+            for (int i = 0; i < priorities.length; i++) {
+                taskRunner.scheduleTask(new QuietTask(priorities[i], i + 1), new TestTaskNotificationListener(finishSignal));
+            }
+            busy.countDown();
+            finishSignal.await();
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(5, 2, 4, 3, 1, 6));
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+
+            int tasks = 20000;
+            CountDownLatch runSignal = new CountDownLatch(tasks);
+            for (int i = 0; i < tasks; i++) {
+                taskRunner.scheduleTask(new QuietTask(i % 13, i), new CountingListener(runSignal));
+            }
+            boolean failed = false;
+            try {
+                taskRunner.executeTask(new SampleTask(0, 99) {
+                    @Override
+                    public void run() {
+                        throw new IllegalStateException("test failure");
+                    }
+                });
+            } catch (CompletionException e) {
+                failed = e.getCause() instanceof IllegalStateException;
+            }
+            try {
+                assert runSignal.await(5, TimeUnit.SECONDS);
+                assert failed;
+                assert taskRunner.numTasks() == 0;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest28 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest28 failed\n");
+        } finally {
+            taskRunner.stop();
+        }
+    }
+
+
+    //check if copies of a queued task are merged into it, with the most urgent priority and all listeners
+    public void test29() {
+        boolean passed = true;
+        clear();
+        PriorityTaskRunner taskRunner = new PriorityTaskRunner(1);
+        taskRunner.enableCoalescing();
+        taskRunner.start();
+        try {
+            CountDownLatch busy = new CountDownLatch(1);
+            taskRunner.scheduleTask(new ThreadRecordingTask(0, new ArrayList<>(), busy), null);
+            sleep(50);
+            CountDownLatch finishSignal = new CountDownLatch(2);
+            CountDownLatch mergedSignal = new CountDownLatch(2);
+            taskRunner.scheduleTask(new QuietTask(5, 1), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTask(new QuietTask(2, 1), new CountingListener(mergedSignal));
+            taskRunner.scheduleTask(new QuietTask(3, 2), new TestTaskNotificationListener(finishSignal));
+            taskRunner.scheduleTasks(Arrays.asList(new QuietTask(9, 1)), new CountingListener(mergedSignal));
+            busy.countDown();
+            finishSignal.await();
+            mergedSignal.await();
+            try {
+                assert commencedTaskIds.equals(Arrays.asList(1, 2));
+                assert taskRunner.coalescedTasks() == 2;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            CountDownLatch againSignal = new CountDownLatch(1);
+            taskRunner.scheduleTask(new QuietTask(5, 1), new CountingListener(againSignal));
+            try {
+                assert againSignal.await(5, TimeUnit.SECONDS);
+                assert taskRunner.coalescedTasks() == 2;
+                assert taskRunner.numTasks() == 0;
+                points += 1;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest29 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest29 failed\n");
+        } finally {
+            taskRunner.stop();
+        }
+    }
+
+
+    //check if tasks run on a worker JVM and the tasks leased to a dead worker are queued again
+    public void test30() {
+        boolean passed = true;
+        clear();
+        TaskCoordinator coordinator = null;
+        Process process = null;
+        try {
+            coordinator = new TaskCoordinator(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                    new QuietTaskSerializer() {
+                        @Override
+                        public byte[] serialize(Task t) {
+                            if (t.getId() == 300) {
+                                throw new IllegalStateException("test failure");
+                            }
+                            return super.serialize(t);
+                        }
+                    }, 2, TimeUnit.SECONDS);
+            coordinator.start();
+            InetSocketAddress address = coordinator.getAddress();
+            process = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"), RemoteTaskWorker.class.getName(),
+                    address.getHostString(), String.valueOf(address.getPort()), "2", QuietTaskSerializer.class.getName())
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            int tasks = 100;
+            CountDownLatch runSignal = new CountDownLatch(tasks);
+            for (int i = 0; i < tasks; i++) {
+                coordinator.scheduleTask(new QuietTask(i % 5, i), new CountingListener(runSignal));
+            }
+            boolean ranRemotely = runSignal.await(30, TimeUnit.SECONDS);
+            process.destroy();
+            process.waitFor();
+
+            CountDownLatch release = new CountDownLatch(1);
+            RemoteTaskWorker dying = new RemoteTaskWorker(address, 1, new BlockingTaskSerializer(release), 4);
+            dying.start();
+            CountDownLatch finishSignal = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                coordinator.scheduleTask(new QuietTask(0, 200 + i), new TestTaskNotificationListener(finishSignal));
+            }
+            for (int i = 0; i < 5000 && coordinator.numLeasedTasks() < 4; i++) {
+                sleep(1);
+            }
+            boolean leased = coordinator.numLeasedTasks() == 4;
+            dying.kill();
+            RemoteTaskWorker healthy = new RemoteTaskWorker(address, 2, new QuietTaskSerializer(), 4);
+            healthy.start();
+            boolean requeued = finishSignal.await(10, TimeUnit.SECONDS);
+            release.countDown();
+            dying.stop();
+
+            // malformed frames close their own connection, a task failing to serialize is dropped
+            boolean truncatedClosed = closedAfter(address, ByteBuffer.allocate(5).putInt(1).put(TaskCoordinator.PULL));
+            boolean negativeClosed = closedAfter(address, ByteBuffer.allocate(9).putInt(5).put(TaskCoordinator.PULL).putInt(-1));
+            CountDownLatch survivedSignal = new CountDownLatch(1);
+            coordinator.scheduleTask(new QuietTask(0, 300), null);
+            coordinator.scheduleTask(new QuietTask(1, 301), new CountingListener(survivedSignal));
+            boolean survived = survivedSignal.await(10, TimeUnit.SECONDS);
+            healthy.stop();
+            try {
+                assert truncatedClosed && negativeClosed && survived;
+                assert ranRemotely;
+                assert leased && requeued;
+                List<Integer> finished = new ArrayList<>(finishedTaskIds);
+                Collections.sort(finished);
+                assert finished.equals(Arrays.asList(200, 201, 202, 203));
+                assert coordinator.numTasks() == 0 && coordinator.numLeasedTasks() == 0;
+                points += 3;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest30 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest30 failed\n");
+        } finally {
+            if (process != null) {
+                process.destroyForcibly();
+            }
+            if (coordinator != null) {
+                coordinator.stop();
+            }
+        }
+    }
+
+
+    //check if tasks queued before setCapacity take up room and give it back when they run
+    public void test31() {
+        boolean passed = true;
+        clear();
+        CountDownLatch finishSignal = new CountDownLatch(4);
+        CountDownLatch refillSignal = new CountDownLatch(5);
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1);
+            for (int i = 0; i < 3; i++) {
+                taskRunner.scheduleTask(new QuietTask(5, 100 + i), new TestTaskNotificationListener(finishSignal));
+            }
+            taskRunner.setCapacity(4, AdmissionPolicy.FAIL_FAST, null);
+            taskRunner.scheduleTask(new QuietTask(5, 103), new TestTaskNotificationListener(finishSignal));
+            boolean rejectedWhenFull = false;
+            try {
+                taskRunner.scheduleTask(new QuietTask(5, 104), new TestTaskNotificationListener(finishSignal));
+            } catch (RejectedExecutionException e) {
+                rejectedWhenFull = true;
+            }
+            taskRunner.start();
+            finishSignal.await();
+
+            // the queue has drained, all of the capacity is free again
+            taskRunner.scheduleTask(new TestTask(0, 500, commenceSignal, blockSignal), new CountingListener(refillSignal));
+            commenceSignal.await();
+            int accepted = 0;
+            for (int i = 0; i < 5; i++) {
+                try {
+                    taskRunner.scheduleTask(new QuietTask(5, 200 + i), new CountingListener(refillSignal));
+                    accepted++;
+                } catch (RejectedExecutionException e) {
+                    // full
+                }
+            }
+            blockSignal.countDown();
+            refillSignal.await(5, TimeUnit.SECONDS);
+            try {
+                assert rejectedWhenFull;
+                assert accepted == 4;
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest31 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest31 failed\n");
+        } finally {
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if idle task threads wait on the lock instead of polling and wake up for a new task
+    public void test32() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(2);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(3);
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(2);
+            taskRunner.start();
+            List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+            for (int i = 0; i < 2; i++) {
+                taskRunner.scheduleTask(new TestTask(0, 100 + i, commenceSignal, blockSignal) {
+                    @Override
+                    public void run() {
+                        threads.add(Thread.currentThread());
+                        super.run();
+                    }
+                }, new TestTaskNotificationListener(finishSignal));
+            }
+            commenceSignal.await();
+            blockSignal.countDown();
+            boolean parked = false;
+            for (int i = 0; i < 5000 && ! parked; i++) {
+                parked = threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING);
+                sleep(1);
+            }
+            // a polling thread would show up as TIMED_WAITING or RUNNABLE
+            boolean stayedParked = parked;
+            for (int i = 0; i < 50 && stayedParked; i++) {
+                stayedParked = threads.stream().allMatch(t -> t.getState() == Thread.State.WAITING);
+                sleep(2);
+            }
+            taskRunner.scheduleTask(new QuietTask(0, 200), new TestTaskNotificationListener(finishSignal));
+            boolean woken = finishSignal.await(5, TimeUnit.SECONDS);
+            try {
+                assert threads.size() == 2 && threads.get(0) != threads.get(1);
+                assert parked && stayedParked;
+                assert woken && finishedTaskIds.contains(200);
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest32 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest32 failed\n");
+        } finally {
+            blockSignal.countDown();
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
+
+    //check if a task scheduled several times notifies the listener of each scheduling once
+    public void test33() {
+        boolean passed = true;
+        clear();
+        CountDownLatch commenceSignal = new CountDownLatch(1);
+        CountDownLatch blockSignal = new CountDownLatch(1);
+        CountDownLatch finishSignal = new CountDownLatch(3);
+        class RecordingListener implements TaskNotificationListener {
+            final List<String> events = Collections.synchronizedList(new ArrayList<>());
+            @Override
+            public void onTaskCommence(Task t) {
+                events.add("commence " + t.getId());
+            }
+            @Override
+            public void onTaskCompletion(Task t) {
+                events.add("completion " + t.getId());
+                finishSignal.countDown();
+            }
+        }
+        PriorityTaskRunner taskRunner = null;
+        try {
+            taskRunner = new PriorityTaskRunner(1);
+            taskRunner.start();
+            taskRunner.scheduleTask(new TestTask(0, 100, commenceSignal, blockSignal), null);
+            commenceSignal.await();
+            Task shared = new QuietTask(5, 200);
+            RecordingListener first = new RecordingListener();
+            RecordingListener second = new RecordingListener();
+            RecordingListener third = new RecordingListener();
+            taskRunner.scheduleTask(shared, first);
+            taskRunner.scheduleTask(shared, second);
+            taskRunner.scheduleTask(shared, null);
+            taskRunner.scheduleTask(shared, third);
+            blockSignal.countDown();
+            boolean finished = finishSignal.await(5, TimeUnit.SECONDS);
+            try {
+                List<String> once = Arrays.asList("commence 200", "completion 200");
+                assert finished;
+                assert first.events.equals(once) && second.events.equals(once) && third.events.equals(once);
+                points += 2;
+            } catch (Throwable t) {
+                t.printStackTrace();
+                passed = false;
+            }
+            System.out.println("\nTest33 passed\n");
+            passCnt += passed ? 1 : 0;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            System.out.println("\nTest33 failed\n");
+        } finally {
+            blockSignal.countDown();
+            if (taskRunner != null) {
+                taskRunner.stop();
+            }
+        }
+    }
+
 
     public void runTests() {
         test1();
@@ -522,6 +2474,31 @@ public class SimplePriorityTaskRunnerTester {
         test6();
         test7();
         test8();
+        test9();
+        test10();
+        test11();
+        test12();
+        test13();
+        test14();
+        test15();
+        test16();
+        test17();
+        test18();
+        test19();
+        test20();
+        test21();
+        test22();
+        test23();
+        test24();
+        test25();
+        test26();
+        test27();
+        test28();
+        test29();
+        test30();
+        test31();
+        test32();
+        test33();
     }
 
     public static void main(String [] args) {
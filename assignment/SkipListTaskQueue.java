@@ -0,0 +1,74 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Lock-free task queue backed by a concurrent skip list, so producers and task threads
+ * do not serialise on the runner lock. The size is kept in a counter because
+ * ConcurrentSkipListSet.size() walks the whole list.
+ */
+public class SkipListTaskQueue implements TaskQueue {
+
+    private final ConcurrentSkipListSet<TaskEntry> entries = new ConcurrentSkipListSet<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    @Override
+    public void add(TaskEntry e) {
+        entries.add(e);// entries are unique by sequence, so add always succeeds
+        size.incrementAndGet();
+    }
+
+    @Override
+    public TaskEntry poll() {
+        TaskEntry e = entries.pollFirst();
+        if (e != null) {
+            size.decrementAndGet();
+        }
+        return e;
+    }
+
+    @Override
+    public TaskEntry peek() {
+        try {
+            return entries.first();
+        } catch (NoSuchElementException e) {
+            return null;// emptied by a concurrent poll
+        }
+    }
+
+    @Override
+    public TaskEntry pollLast() {
+        TaskEntry e = entries.pollLast();
+        if (e != null) {
+            size.decrementAndGet();
+        }
+        return e;
+    }
+
+    @Override
+    public List<TaskEntry> removeIf(Predicate<TaskEntry> filter) {
+        List<TaskEntry> removed = new ArrayList<>();
+        for (TaskEntry e : entries) {
+            if (filter.test(e) && entries.remove(e)) {// a task thread may have polled it meanwhile
+                size.decrementAndGet();
+                removed.add(e);
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public int size() {
+        return Math.max(size.get(), 0);// may lag behind a concurrent poll for a moment
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+}
@@ -1,6 +1,12 @@
 package assignments;
 
 
+/**
+ * A task the runners order by getPriority(), lower values first. compareTo() only orders tasks
+ * of equal priority, tasks it finds equal run in submission order. A task whose compareTo()
+ * disagrees with getPriority() still runs by priority; its priority is the only key queues
+ * such as BucketTaskQueue see, and a runner may change it, e.g. through a TaskHandle.
+ */
 public interface Task extends Comparable<Task> {
     int getPriority();
     int getId();
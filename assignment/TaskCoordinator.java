@@ -0,0 +1,417 @@
+package assignments;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinator of a runner spread over several JVMs. The coordinator owns the priority queue,
+ * RemoteTaskWorker processes connect to it and pull tasks in batches. A task handed to a
+ * worker is leased to the worker's connection; the worker renews its leases by sending a
+ * heartbeat, and the tasks of a worker that disconnects or stops renewing are queued again,
+ * so a task runs at least once. Commencement and completion reported by a worker are relayed
+ * to the listener the task was scheduled with, on the coordinator thread.
+ *
+ * Frames in both directions are [int length][byte type][payload], length counting the type
+ * and the payload:
+ * HELLO (coordinator) long lease time in nanoseconds, sent on connect
+ * PULL (worker) int number of tasks the worker has room for
+ * RENEW (worker) heartbeat renewing all leases of the connection
+ * COMMENCED, COMPLETED (worker) long lease id
+ * TASK (coordinator) long lease id, serialized task
+ * A worker sending a frame of the wrong length for its type, or a negative PULL, is
+ * disconnected like a worker that died. A task the serializer fails on is dropped without
+ * notifying its listener.
+ */
+public class TaskCoordinator implements Runnable {
+
+    static final byte HELLO = 1;
+    static final byte PULL = 2;
+    static final byte RENEW = 3;
+    static final byte COMMENCED = 4;
+    static final byte COMPLETED = 5;
+    static final byte TASK = 6;
+    static final int MAX_FRAME = 64 << 20;
+
+    private static final class Connection {
+        final SocketChannel channel;
+        final SelectionKey key;
+        ByteBuffer in = ByteBuffer.allocate(4096);
+        ByteBuffer out = ByteBuffer.allocate(4096);// in write mode
+        int credit;// tasks the worker has asked for and not got yet
+        final Map<Long, TaskEntry> leases = new HashMap<>();
+        long lastHeardNanos;
+
+        Connection(SocketChannel channel, SelectionKey key, long now) {
+            this.channel = channel;
+            this.key = key;
+            this.lastHeardNanos = now;
+        }
+    }
+
+    private final TaskQueue taskQueue = new HeapTaskQueue();// guarded by itself
+    private final TaskSerializer serializer;
+    private final long leaseNanos;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final Thread thread;
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<Connection> connections = new ArrayList<>();// only used by the coordinator thread
+    private long nextLeaseId = 1;// only used by the coordinator thread
+    private volatile boolean hungry;// a worker waits for tasks
+    private volatile int leasedTasks;
+    private volatile boolean stopped;
+
+    /**
+     * @param address address to listen on, port 0 picks a free port
+     * @param serializer serializer of the tasks, the workers use an equivalent one
+     * @param leaseTime time a worker keeps its tasks without renewing its leases
+     * @param unit unit of leaseTime
+     */
+    public TaskCoordinator(InetSocketAddress address, TaskSerializer serializer, long leaseTime, TimeUnit unit)
+            throws IOException {
+        this.serializer = serializer;
+        this.leaseNanos = unit.toNanos(leaseTime);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this, "Task coordinator");
+    }
+
+    /**
+     * @return address the coordinator listens on
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) server.getLocalAddress();
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queue a task for the workers
+     * @param t task to be added
+     * @param listener listener instance to be notified of task commencement and completion events
+     */
+    public void scheduleTask(Task t, TaskNotificationListener listener) {
+        TaskEntry entry = new TaskEntry(t, listener, sequence.getAndIncrement());
+        synchronized (taskQueue) {
+            taskQueue.add(entry);
+        }
+        // hungry is set before the coordinator checks the queue a last time, so either it
+        // sees this entry or we see hungry and wake it up
+        if (hungry) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * @return number of tasks waiting for a worker
+     */
+    public int numTasks() {
+        return taskQueue.size();
+    }
+
+    /**
+     * @return number of tasks leased to workers that have not completed yet
+     */
+    public int numLeasedTasks() {
+        return leasedTasks;
+    }
+
+    /**
+     * Close the connections of all workers and wait for the coordinator thread to terminate.
+     * Tasks still queued or leased do not run.
+     */
+    public void stop() {
+        stopped = true;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void run() {
+        long selectMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(leaseNanos) / 4, 1);
+        try {
+            while (! stopped) {
+                selector.select(selectMillis);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (! key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection c = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(c);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(c);
+                        }
+                    } catch (IOException e) {
+                        close(c);// the worker died or sent a bad frame, its tasks are queued again
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                        close(c);// only this worker is affected
+                    }
+                }
+                expireLeases();
+                dispatch();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Connection c : new ArrayList<>(connections)) {
+                close(c);
+            }
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        Connection c = new Connection(channel, key, System.nanoTime());
+        key.attach(c);
+        connections.add(c);
+        frame(c, HELLO, 8).putLong(leaseNanos);
+        try {
+            flush(c);
+        } catch (IOException e) {
+            close(c);
+        }
+    }
+
+    private void read(Connection c) throws IOException {
+        if (c.channel.read(c.in) < 0) {
+            throw new IOException("worker disconnected");
+        }
+        c.lastHeardNanos = System.nanoTime();
+        c.in.flip();
+        while (c.in.remaining() >= 5) {
+            int length = c.in.getInt(c.in.position());
+            byte type = c.in.get(c.in.position() + 4);
+            if (length != 1 + payloadBytes(type)) {
+                throw new IOException("bad frame length " + length + " for type " + type);
+            }
+            if (c.in.remaining() < 4 + length) {
+                break;
+            }
+            c.in.getInt();
+            int end = c.in.position() + length;
+            handle(c, c.in.get(), c.in);
+            c.in.position(end);
+        }
+        c.in.compact();
+        if (! c.in.hasRemaining()) {
+            c.in = grow(c.in, c.in.capacity() * 2);
+        }
+    }
+
+    /**
+     * @return payload size of a frame sent by a worker
+     */
+    private static int payloadBytes(byte type) throws IOException {
+        switch (type) {
+            case PULL:
+                return 4;
+            case RENEW:
+                return 0;
+            case COMMENCED:
+            case COMPLETED:
+                return 8;
+            default:
+                throw new IOException("unknown frame type " + type);
+        }
+    }
+
+    private void handle(Connection c, byte type, ByteBuffer payload) throws IOException {
+        switch (type) {
+            case PULL: {
+                int n = payload.getInt();
+                if (n < 0) {
+                    throw new IOException("negative credit " + n);
+                }
+                c.credit = (int) Math.min((long) c.credit + n, Integer.MAX_VALUE);
+                break;
+            }
+            case RENEW:
+                break;// lastHeardNanos has been updated
+            case COMMENCED: {
+                TaskEntry entry = c.leases.get(payload.getLong());
+                if (entry != null) {
+                    notify(entry, true);
+                }
+                break;
+            }
+            case COMPLETED: {
+                TaskEntry entry = c.leases.remove(payload.getLong());
+                if (entry != null) {
+                    leasedTasks--;
+                    notify(entry, false);
+                }
+                break;
+            }
+            default:
+                throw new IOException("unknown frame type " + type);
+        }
+    }
+
+    /**
+     * Relay an event to the listener of an entry, a failing listener does not end the coordinator
+     */
+    private static void notify(TaskEntry entry, boolean commence) {
+        TaskNotificationListener listener = entry.getListener();
+        if (listener == null) {
+            return;
+        }
+        try {
+            if (commence) {
+                listener.onTaskCommence(entry.getTask());
+            } else {
+                listener.onTaskCompletion(entry.getTask());
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hand queued tasks to the workers that have asked for them, one write per worker
+     */
+    private void dispatch() {
+        boolean waiting = false;
+        for (Connection c : new ArrayList<>(connections)) {
+            if (c.credit == 0) {
+                continue;
+            }
+            while (c.credit > 0) {
+                TaskEntry entry;
+                synchronized (taskQueue) {
+                    entry = taskQueue.poll();
+                }
+                if (entry == null) {
+                    break;
+                }
+                byte[] data;
+                try {
+                    data = serializer.serialize(entry.getTask());
+                } catch (RuntimeException e) {
+                    e.printStackTrace();// no worker could run it, the task is dropped
+                    continue;
+                }
+                long leaseId = nextLeaseId++;
+                frame(c, TASK, 8 + data.length).putLong(leaseId).put(data);
+                c.leases.put(leaseId, entry);
+                c.credit--;
+                leasedTasks++;
+            }
+            try {
+                flush(c);
+            } catch (IOException e) {
+                close(c);
+                continue;
+            }
+            waiting |= c.credit > 0;
+        }
+        hungry = waiting;
+        if (waiting && taskQueue.size() > 0) {
+            dispatch();// scheduled before hungry was set
+        }
+    }
+
+    /**
+     * Close the connections of workers that have not been heard of for the lease time
+     */
+    private void expireLeases() {
+        long now = System.nanoTime();
+        for (Connection c : new ArrayList<>(connections)) {
+            if (now - c.lastHeardNanos > leaseNanos) {
+                close(c);
+            }
+        }
+    }
+
+    /**
+     * Drop a connection and queue its leased tasks again
+     */
+    private void close(Connection c) {
+        if (! connections.remove(c)) {
+            return;
+        }
+        c.key.cancel();
+        try {
+            c.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (! c.leases.isEmpty()) {
+            synchronized (taskQueue) {
+                taskQueue.addAll(c.leases.values());
+            }
+            leasedTasks -= c.leases.size();
+            c.leases.clear();
+        }
+    }
+
+    /**
+     * Append a frame header to the output buffer of a connection
+     * @return the output buffer, to put the payload into
+     */
+    private static ByteBuffer frame(Connection c, byte type, int payloadLength) {
+        int needed = 5 + payloadLength;
+        if (c.out.remaining() < needed) {
+            c.out = grow(c.out, Math.max(c.out.capacity() * 2, c.out.position() + needed));
+        }
+        return c.out.putInt(1 + payloadLength).put(type);
+    }
+
+    private void flush(Connection c) throws IOException {
+        c.out.flip();
+        c.channel.write(c.out);
+        c.out.compact();
+        // wait for the socket to drain if the worker does not keep up
+        c.key.interestOps(c.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer bigger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,122 @@
+package assignments;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Queue element wrapping a scheduled task together with the listener it was scheduled with.
+ * Entries are ordered by task priority (lower value runs first, as in SampleTask), then by
+ * Task.compareTo, then by submission order so equal tasks keep FIFO order and never collide.
+ */
+public final class TaskEntry implements Comparable<TaskEntry> {
+    private Task task;// not final, entries are recycled when the runner pools them
+    private TaskNotificationListener listener;
+    private int priority;
+    private long sequence;
+    TaskEntry next;// link used by queues that keep entries in intrusive lists
+    CompletableFuture<Task> future;// set by submit and executeTask, null otherwise
+    long enqueueNanos;// only set when the runner records metrics
+    boolean admitted;// holds a permit of a bounded runner
+    boolean hasDeadline;
+    long deadlineNanos;// System.nanoTime() based, valid if hasDeadline
+    long dueNanos;// when a delayed entry moves from the timing wheel to the task queue
+    long periodNanos;// > 0 fixed rate, < 0 fixed delay, 0 runs once
+    TaskHandle handle;// set by scheduleTaskWithHandle, null otherwise
+    long journalId;// id of the SCHEDULED journal record, 0 if not journaled or completed
+    long journalSegment;// segment holding that record
+    Object tenant;// set by scheduleTaskForTenant, null otherwise
+    volatile Thread waiter;// executeTask caller parked until the entry has run, null otherwise
+    volatile boolean done;// set once the waiter may return
+    Throwable failure;// what the waiter throws, written before done
+
+    TaskEntry(Task task, TaskNotificationListener listener, long sequence) {
+        this(task, listener, sequence, task.getPriority());
+    }
+
+    /**
+     * @param priority priority the entry is queued with instead of the task's own
+     */
+    TaskEntry(Task task, TaskNotificationListener listener, long sequence, int priority) {
+        this.task = task;
+        this.listener = listener;
+        this.priority = priority;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Make a recycled entry a new one, see EntryPool
+     */
+    void reset(Task task, TaskNotificationListener listener, long sequence, int priority) {
+        this.task = task;
+        this.listener = listener;
+        this.priority = priority;
+        this.sequence = sequence;
+        next = null;
+        future = null;
+        enqueueNanos = 0;
+        admitted = false;
+        hasDeadline = false;
+        deadlineNanos = 0;
+        dueNanos = 0;
+        periodNanos = 0;
+        handle = null;
+        journalId = 0;
+        journalSegment = 0;
+        tenant = null;
+        waiter = null;
+        done = false;
+        failure = null;
+    }
+
+    /**
+     * Drop the references of an entry going back to the pool
+     */
+    void clear() {
+        task = null;
+        listener = null;
+        waiter = null;
+        failure = null;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    /**
+     * @return listener to be notified of task commencement and completion, may be null
+     */
+    public TaskNotificationListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return priority the entry is queued with, the task's priority unless it was changed
+     * through a TaskHandle
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return submission order of this entry within its runner
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @param nowNanos current System.nanoTime()
+     * @return true if the entry has a deadline and it has passed
+     */
+    boolean isExpired(long nowNanos) {
+        return hasDeadline && nowNanos - deadlineNanos > 0;
+    }
+
+    @Override
+    public int compareTo(TaskEntry o) {
+        int c = Integer.compare(priority, o.priority);
+        if (c == 0) {
+            c = task.compareTo(o.task);
+        }
+        return c != 0 ? c : Long.compare(sequence, o.sequence);
+    }
+}
@@ -0,0 +1,27 @@
+package assignments;
+
+/**
+ * Commencement or completion of a task, as delivered to a BatchTaskNotificationListener.
+ */
+public final class TaskEvent {
+
+    public enum Type { COMMENCE, COMPLETION }
+
+    private final Task task;
+    private final Type type;
+    final TaskNotificationListener listener;
+
+    TaskEvent(TaskNotificationListener listener, Task task, Type type) {
+        this.listener = listener;
+        this.task = task;
+        this.type = type;
+    }
+
+    public Task getTask() {
+        return task;
+    }
+
+    public Type getType() {
+        return type;
+    }
+}
@@ -0,0 +1,134 @@
+package assignments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tasks with dependencies between them, scheduled with PriorityTaskRunner.scheduleGraph.
+ * A task is queued once all tasks it depends on have completed. Tasks are told apart by
+ * identity, a graph may be scheduled several times.
+ */
+public final class TaskGraph {
+
+    private final Map<Task, Integer> index = new IdentityHashMap<>();
+    private final List<Task> tasks = new ArrayList<>();
+    private int[] edgeFrom = new int[16];
+    private int[] edgeTo = new int[16];
+    private int edges;
+
+    /**
+     * Add a task without dependencies, adding it again has no effect
+     * @param t task to be added
+     * @return this graph
+     */
+    public TaskGraph add(Task t) {
+        node(t);
+        return this;
+    }
+
+    /**
+     * Let child run only after parent has completed, adding both tasks if they are missing
+     * @param parent task to run first
+     * @param child task depending on parent
+     * @return this graph
+     */
+    public TaskGraph addDependency(Task parent, Task child) {
+        int from = node(parent);
+        int to = node(child);
+        if (edges == edgeFrom.length) {
+            edgeFrom = Arrays.copyOf(edgeFrom, edges * 2);
+            edgeTo = Arrays.copyOf(edgeTo, edges * 2);
+        }
+        edgeFrom[edges] = from;
+        edgeTo[edges] = to;
+        edges++;
+        return this;
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    private int node(Task t) {
+        Integer i = index.get(t);
+        if (i == null) {
+            i = tasks.size();
+            index.put(t, i);
+            tasks.add(t);
+        }
+        return i;
+    }
+
+    /**
+     * Freeze the graph into arrays. Every task is queued with the most urgent priority among
+     * itself and the tasks depending on it, directly or not, so the chain leading to an urgent
+     * task is not held up by less urgent work.
+     * @throws IllegalArgumentException if the dependencies form a cycle
+     */
+    Plan plan() {
+        int n = tasks.size();
+        Plan plan = new Plan();
+        plan.tasks = tasks.toArray(new Task[0]);
+        plan.childStart = new int[n + 1];
+        plan.children = new int[edges];
+        plan.parents = new int[n];
+        for (int e = 0; e < edges; e++) {
+            plan.childStart[edgeFrom[e] + 1]++;
+            plan.parents[edgeTo[e]]++;
+        }
+        for (int i = 0; i < n; i++) {
+            plan.childStart[i + 1] += plan.childStart[i];
+        }
+        int[] fill = Arrays.copyOf(plan.childStart, n);
+        for (int e = 0; e < edges; e++) {
+            plan.children[fill[edgeFrom[e]]++] = edgeTo[e];
+        }
+        // Kahn's algorithm, order ends up holding the tasks in topological order
+        int[] order = new int[n];
+        int[] pending = plan.parents.clone();
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (pending[i] == 0) {
+                order[tail++] = i;
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int i = order[head];
+            for (int c = plan.childStart[i]; c < plan.childStart[i + 1]; c++) {
+                if (--pending[plan.children[c]] == 0) {
+                    order[tail++] = plan.children[c];
+                }
+            }
+        }
+        if (tail < n) {
+            throw new IllegalArgumentException("task dependencies form a cycle");
+        }
+        plan.priority = new int[n];
+        int roots = 0;
+        for (int k = n - 1; k >= 0; k--) {
+            int i = order[k];
+            int p = plan.tasks[i].getPriority();
+            for (int c = plan.childStart[i]; c < plan.childStart[i + 1]; c++) {
+                p = Math.min(p, plan.priority[plan.children[c]]);
+            }
+            plan.priority[i] = p;
+            if (plan.parents[i] == 0) {
+                roots++;
+            }
+        }
+        plan.roots = Arrays.copyOf(order, roots);// the roots come first in order
+        return plan;
+    }
+
+    static final class Plan {
+        Task[] tasks;
+        int[] priority;// priority the task is queued with
+        int[] parents;// number of tasks the task depends on
+        int[] childStart;// children of task i are children[childStart[i]] .. children[childStart[i + 1] - 1]
+        int[] children;
+        int[] roots;
+    }
+}
@@ -0,0 +1,120 @@
+package assignments;
+
+/**
+ * Handle of a task scheduled with PriorityTaskRunner.scheduleTaskWithHandle, used to cancel
+ * the task or change its priority while it is queued. Both leave the queued entry in place as
+ * a tombstone that task threads drop when they take it, so cancel() is O(1) and setPriority()
+ * costs one queue insertion.
+ */
+public final class TaskHandle {
+
+    private static final int QUEUED = 0;
+    private static final int TAKEN = 1;
+    private static final int CANCELLED = 2;
+
+    private final PriorityTaskRunner runner;
+    private volatile TaskEntry current;// the only entry of this handle that may run
+    private volatile int state = QUEUED;
+
+    TaskHandle(PriorityTaskRunner runner, TaskEntry entry) {
+        this.runner = runner;
+        this.current = entry;
+        entry.handle = this;
+    }
+
+    public Task getTask() {
+        return current.getTask();
+    }
+
+    /**
+     * @return priority the task is currently queued with
+     */
+    public int getPriority() {
+        return current.getPriority();
+    }
+
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    /**
+     * Remove the task from the runner unless a task thread has already taken it.
+     * Its listener is not notified.
+     * @return true if the task will not run
+     */
+    public boolean cancel() {
+        synchronized (this) {
+            if (state != QUEUED) {
+                return state == CANCELLED;
+            }
+            state = CANCELLED;
+        }
+        runner.tombstoned(current);
+        return true;
+    }
+
+    /**
+     * Queue the task with another priority unless a task thread has already taken it
+     * @param priority new priority, lower values run first
+     * @return true if the priority was changed
+     */
+    public boolean setPriority(int priority) {
+        TaskEntry old;
+        synchronized (this) {
+            if (state != QUEUED) {
+                return false;
+            }
+            old = current;
+            if (old.getPriority() == priority) {
+                return true;
+            }
+            current = runner.requeue(this, old, priority);
+        }
+        runner.tombstoned(old);
+        return true;
+    }
+
+    /**
+     * Merge another copy of the task into this one while it is queued: the listener of the
+     * copy is notified too and the task moves up to the priority of the copy if that is more
+     * urgent. Only used for entries whose listener is a CoalescedListener.
+     * @param listener listener of the copy, may be null
+     * @param priority priority of the copy
+     * @return false if a task thread has already taken the task, the copy has to be queued
+     */
+    boolean merge(TaskNotificationListener listener, int priority) {
+        TaskEntry old;
+        synchronized (this) {
+            if (state != QUEUED) {
+                return false;
+            }
+            old = current;
+            ((CoalescedListener) old.getListener()).add(listener);
+            if (priority >= old.getPriority()) {
+                return true;
+            }
+            current = runner.requeue(this, old, priority);
+        }
+        runner.tombstoned(old);
+        return true;
+    }
+
+    /**
+     * Called by a task thread that has taken entry from a queue
+     * @return true if entry has to run, false if it is a tombstone to be dropped
+     */
+    synchronized boolean take(TaskEntry entry) {
+        if (state != QUEUED || entry != current) {
+            return false;
+        }
+        state = TAKEN;
+        return true;
+    }
+
+    /**
+     * @return true if entry has been cancelled or replaced, readable without the handle's lock
+     */
+    boolean isTombstone(TaskEntry entry) {
+        return entry != current || state == CANCELLED;
+    }
+}
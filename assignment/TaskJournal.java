@@ -0,0 +1,496 @@
+package assignments;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32C;
+
+/**
+ * Write-ahead journal of the tasks queued by a durable runner. Records are appended to
+ * memory-mapped segment files, so an append is a memory copy and the data survives a crash of
+ * the JVM as soon as it is written; a sync thread forces the written ranges to disk once per
+ * sync interval (group commit), which bounds what a crash of the machine can lose.
+ * <p>
+ * Each record is [length][crc32c][type][id] followed for SCHEDULED records by the priority and
+ * the serialized task. Recovery replays the segments in order and stops reading a segment at
+ * the first zero length or checksum mismatch. A segment is deleted once every task scheduled in
+ * it has completed and all older segments are gone; when a new segment is started, the oldest
+ * one is compacted into it if at most a quarter of its tasks are still pending.
+ * <p>
+ * Compaction, the deletion of segments and the creation of the next segment run on the sync
+ * thread, so appends only copy memory. A segment is deleted after the data written before it
+ * was retired has been forced, so the copies of its pending tasks are on disk first.
+ */
+final class TaskJournal implements Runnable {
+
+    private static final byte SCHEDULED = 1;
+    private static final byte STARTED = 2;
+    private static final byte COMPLETED = 3;// also written for cancelled, rejected and dropped tasks
+    private static final int HEADER_BYTES = 4 + 4 + 1 + 8;
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".log";
+
+    private final Path directory;
+    private final TaskSerializer serializer;
+    private final int segmentBytes;
+    private final long syncIntervalNanos;
+    private final List<Segment> segments = new ArrayList<>();// oldest first, only a few
+    private final List<Segment> retired = new ArrayList<>();// to be deleted by the sync thread
+    private final Map<Long, TaskEntry> live = new HashMap<>();// journaled entries not yet completed
+    private final List<Recovered> recovered = new ArrayList<>();
+    private final CRC32C crc = new CRC32C();
+    private final Thread thread;
+    private Segment current;
+    private Segment spare;// next segment, created ahead by the sync thread
+    private boolean preparing;// the sync thread is creating the spare segment
+    private boolean compactPending;
+    private long nextId = 1;
+    private volatile boolean closed;
+
+    /**
+     * Open the journal in directory and read the tasks pending in it
+     * @param directory directory holding the segment files, created if missing
+     * @param serializer serializer of the journaled tasks
+     * @param segmentBytes size of a segment file
+     * @param syncIntervalNanos time between two forces of the written data to disk
+     */
+    TaskJournal(Path directory, TaskSerializer serializer, int segmentBytes, long syncIntervalNanos) {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("segmentBytes must be at least 4096");
+        }
+        if (syncIntervalNanos <= 0) {
+            throw new IllegalArgumentException("sync interval must be positive");
+        }
+        this.directory = directory;
+        this.serializer = serializer;
+        this.segmentBytes = segmentBytes;
+        this.syncIntervalNanos = syncIntervalNanos;
+        thread = new Thread(this, "Task journal sync thread");
+        thread.setDaemon(true);
+        try {
+            Files.createDirectories(directory);
+            recover();
+            current = newSegment(segments.isEmpty() ? 1 : segments.get(segments.size() - 1).id + 1);
+            segments.add(current);
+            retireCompletedSegments();
+            for (Segment s : retired) {
+                Files.deleteIfExists(s.path);// nothing was written yet, no need to wait for a sync
+            }
+            retired.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Task scheduled but not completed before the journal was last closed or the process died
+     */
+    static final class Recovered {
+        final long id;
+        final long segment;
+        final int priority;
+        final byte[] data;
+
+        Recovered(long id, long segment, int priority, byte[] data) {
+            this.id = id;
+            this.segment = segment;
+            this.priority = priority;
+            this.data = data;
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        int records;// SCHEDULED records
+        int live;// of those, entries not completed yet
+        int synced;// only used by the sync thread
+
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * @return tasks pending when the journal was opened, in the order they were scheduled
+     */
+    List<Recovered> recovered() {
+        return recovered;
+    }
+
+    TaskSerializer serializer() {
+        return serializer;
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Force the remaining data to disk and stop the sync thread
+     */
+    void close() {
+        closed = true;
+        if (! thread.isAlive()) {
+            sync();// the runner was never started
+            return;
+        }
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Record a recovered entry as pending again without writing it
+     */
+    synchronized void restored(TaskEntry e, Recovered r) {
+        e.journalId = r.id;
+        e.journalSegment = r.segment;
+        live.put(r.id, e);
+    }
+
+    /**
+     * Append SCHEDULED records, must be called before the entries are queued. Either all
+     * entries are journaled or, if one of them does not fit a segment, none.
+     */
+    void scheduled(Collection<TaskEntry> entries) {
+        List<byte[]> data = new ArrayList<>(entries.size());
+        for (TaskEntry e : entries) {
+            byte[] d = serializer.serialize(e.getTask());// outside the lock
+            checkFits(d);
+            data.add(d);
+        }
+        synchronized (this) {
+            int i = 0;
+            for (TaskEntry e : entries) {
+                e.journalId = nextId++;
+                appendScheduled(e, data.get(i++));
+            }
+        }
+    }
+
+    void scheduled(TaskEntry e) {
+        byte[] data = serializer.serialize(e.getTask());
+        synchronized (this) {
+            e.journalId = nextId++;
+            appendScheduled(e, data);
+        }
+    }
+
+    void started(TaskEntry e) {
+        if (e.journalId == 0) {
+            return;
+        }
+        synchronized (this) {
+            append(STARTED, e.journalId, 0, null);
+        }
+    }
+
+    /**
+     * Record that an entry has run or will never run
+     */
+    void completed(TaskEntry e) {
+        if (e.journalId == 0) {
+            return;
+        }
+        synchronized (this) {
+            if (e.journalId == 0) {
+                return;// completed concurrently, e.g. cancelled while rejected
+            }
+            append(COMPLETED, e.journalId, 0, null);
+            live.remove(e.journalId);
+            e.journalId = 0;
+            segment(e.journalSegment).live--;
+            retireCompletedSegments();
+        }
+    }
+
+    private void appendScheduled(TaskEntry e, byte[] data) {
+        append(SCHEDULED, e.journalId, e.getPriority(), data);
+        e.journalSegment = current.id;
+        current.records++;
+        current.live++;
+        live.put(e.journalId, e);
+    }
+
+    private void checkFits(byte[] data) {
+        if (HEADER_BYTES + 8 + data.length > segmentBytes) {
+            throw new IllegalArgumentException("task of " + data.length + " bytes does not fit a journal segment");
+        }
+    }
+
+    private void append(byte type, long id, int priority, byte[] data) {
+        int length = HEADER_BYTES + (data != null ? 8 + data.length : 0);
+        if (data != null) {
+            checkFits(data);
+        }
+        if (current.buffer.remaining() < length) {
+            roll();
+        }
+        MappedByteBuffer b = current.buffer;
+        int start = b.position();
+        b.putInt(length).putInt(0).put(type).putLong(id);
+        if (data != null) {
+            b.putInt(priority).putInt(data.length).put(data);
+        }
+        b.putInt(start + 4, checksum(b, start + 8, start + length));
+    }
+
+    private int checksum(ByteBuffer b, int from, int to) {
+        ByteBuffer body = b.duplicate();
+        body.limit(to).position(from);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Continue in the spare segment, or in a new one if the sync thread has not created it yet,
+     * and let the sync thread compact the oldest segment
+     */
+    private void roll() {
+        while (spare == null && preparing) {
+            try {
+                wait();// the sync thread is about to hand it over
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (spare != null && spare.id == current.id + 1) {
+            current = spare;
+        } else {
+            try {
+                current = newSegment(current.id + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        spare = null;
+        segments.add(current);
+        compactPending = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Copy the pending tasks of the oldest segment into the current one if at most a quarter of
+     * its tasks are still pending. Called by the sync thread, serializes outside the lock.
+     */
+    private void compact() {
+        Segment head;
+        List<TaskEntry> moving = new ArrayList<>();
+        synchronized (this) {
+            if (! compactPending) {
+                return;
+            }
+            compactPending = false;
+            head = segments.get(0);
+            if (head == current || head.live * 4 > head.records) {
+                return;
+            }
+            for (TaskEntry e : live.values()) {
+                if (e.journalSegment == head.id) {
+                    moving.add(e);
+                }
+            }
+        }
+        List<byte[]> data = new ArrayList<>(moving.size());
+        for (TaskEntry e : moving) {
+            data.add(serializer.serialize(e.getTask()));
+        }
+        synchronized (this) {
+            for (int i = 0; i < moving.size(); i++) {
+                TaskEntry e = moving.get(i);
+                if (e.journalId != 0 && e.journalSegment == head.id) {// not completed meanwhile
+                    head.live--;
+                    appendScheduled(e, data.get(i));
+                }
+            }
+            retireCompletedSegments();
+        }
+    }
+
+    private Segment segment(long id) {
+        for (Segment s : segments) {
+            if (s.id == id) {
+                return s;
+            }
+        }
+        throw new IllegalStateException("journal segment " + id + " already deleted");
+    }
+
+    /**
+     * Hand the completed segments at the head over to the sync thread for deletion
+     */
+    private void retireCompletedSegments() {
+        while (segments.size() > 1 && segments.get(0) != current && segments.get(0).live == 0) {
+            retired.add(segments.remove(0));
+        }
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        Path path = directory.resolve(String.format("%s%016d%s", PREFIX, id, SUFFIX));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new Segment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                files.add(path);
+            }
+        }
+        files.sort(null);// ids are zero padded
+        Map<Long, Recovered> pending = new LinkedHashMap<>();
+        for (Path path : files) {
+            String name = path.getFileName().toString();
+            long id = Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+            MappedByteBuffer b;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                b = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            Segment segment = new Segment(id, path, b);
+            segments.add(segment);
+            while (b.remaining() >= HEADER_BYTES) {
+                int start = b.position();
+                int length = b.getInt(start);
+                if (length < HEADER_BYTES || length > b.limit() - start
+                        || b.getInt(start + 4) != checksum(b, start + 8, start + length)) {
+                    break;// end of the segment or torn write
+                }
+                byte type = b.get(start + 8);
+                long recordId = b.getLong(start + 9);
+                nextId = Math.max(nextId, recordId + 1);
+                if (type == SCHEDULED) {
+                    byte[] data = new byte[b.getInt(start + HEADER_BYTES + 4)];
+                    b.position(start + HEADER_BYTES + 8);
+                    b.get(data);
+                    pending.remove(recordId);// moved by compaction, keeps the newest copy
+                    pending.put(recordId, new Recovered(recordId, id, b.getInt(start + HEADER_BYTES), data));
+                    segment.records++;
+                } else if (type == COMPLETED) {
+                    pending.remove(recordId);
+                }
+                b.position(start + length);
+            }
+            segment.synced = b.position();
+        }
+        for (Recovered r : pending.values()) {
+            segment(r.segment).live++;
+            recovered.add(r);
+        }
+    }
+
+    /**
+     * Sync thread, forces the data written since the last round once per sync interval and
+     * does the segment housekeeping
+     */
+    @Override
+    public void run() {
+        while (! closed) {
+            LockSupport.parkNanos(this, syncIntervalNanos);
+            sync();
+        }
+        sync();
+    }
+
+    private void sync() {
+        compact();
+        List<Segment> dirty = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        List<Segment> deleting;
+        synchronized (this) {
+            for (Segment s : segments) {
+                if (s.buffer.position() > s.synced) {
+                    dirty.add(s);
+                    ends.add(s.buffer.position());
+                }
+            }
+            deleting = new ArrayList<>(retired);
+            retired.clear();
+        }
+        for (int i = 0; i < dirty.size(); i++) {
+            Segment s = dirty.get(i);
+            s.buffer.force(s.synced, ends.get(i) - s.synced);
+            s.synced = ends.get(i);
+        }
+        // only after the force above, which covers the copies made when they were compacted
+        for (Segment s : deleting) {
+            delete(s.path);
+        }
+        if (closed) {
+            Segment unused;
+            synchronized (this) {
+                unused = spare;
+                spare = null;
+            }
+            if (unused != null) {
+                delete(unused.path);
+            }
+        } else {
+            prepareSpare();
+        }
+    }
+
+    /**
+     * Create the next segment ahead of time, so roll() does not wait for the file system
+     */
+    private void prepareSpare() {
+        long id;
+        synchronized (this) {
+            if (spare != null && spare.id == current.id + 1) {
+                return;
+            }
+            id = current.id + 1;
+            preparing = true;
+        }
+        Segment next = null;
+        try {
+            next = newSegment(id);
+        } catch (IOException e) {
+            e.printStackTrace();// roll() creates the segment itself
+        } finally {
+            synchronized (this) {
+                preparing = false;
+                if (next != null && current.id + 1 == id) {
+                    spare = next;
+                    next = null;
+                }
+                notifyAll();
+            }
+        }
+        if (next != null) {
+            delete(next.path);// rolled over meanwhile
+        }
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();// the next recovery finds it completed again
+        }
+    }
+}
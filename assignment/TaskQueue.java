@@ -0,0 +1,68 @@
+package assignments;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Priority queue of task entries used by a task runner.
+ * poll() must return the entry that runs first according to the queue's ordering.
+ */
+public interface TaskQueue {
+
+    /**
+     * Add an entry to the queue
+     * @param e entry to be added
+     */
+    void add(TaskEntry e);
+
+    /**
+     * Add a batch of entries
+     * @param entries entries to be added
+     */
+    default void addAll(Collection<TaskEntry> entries) {
+        for (TaskEntry e : entries) {
+            add(e);
+        }
+    }
+
+    /**
+     * Remove the entry that runs next
+     * @return next entry or null if the queue is empty
+     */
+    TaskEntry poll();
+
+    /**
+     * @return entry that runs next without removing it, or null if the queue is empty
+     */
+    TaskEntry peek();
+
+    /**
+     * Remove an entry of the least urgent priority, used to make room when the runner is full,
+     * see AdmissionPolicy.EVICT_LOWEST. Heaps only know their head, so there it is a linear scan.
+     * @return removed entry or null if the queue is empty
+     */
+    TaskEntry pollLast();
+
+    /**
+     * Remove all entries matching the filter
+     * @param filter filter selecting the entries to be removed
+     * @return removed entries
+     */
+    List<TaskEntry> removeIf(Predicate<TaskEntry> filter);
+
+    /**
+     * @return number of entries in the queue, must be safe to call without the runner lock
+     */
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return true if the queue can be used by several threads without external locking,
+     * false if the runner has to guard every call with its lock
+     */
+    boolean isConcurrent();
+}
@@ -0,0 +1,20 @@
+package assignments;
+
+/**
+ * Converts tasks to bytes and back for the journal of a durable runner,
+ * see PriorityTaskRunner.enableJournal().
+ */
+public interface TaskSerializer {
+
+    /**
+     * @param t task to be written to the journal
+     * @return serialized form of the task
+     */
+    byte[] serialize(Task t);
+
+    /**
+     * @param data bytes returned by serialize()
+     * @return equivalent task
+     */
+    Task deserialize(byte[] data);
+}
@@ -0,0 +1,49 @@
+package assignments;
+
+/**
+ * Point-in-time copy of the counters of one tenant of a FairShareTaskQueue.
+ * Counters are cumulative since the tenant was first seen, or since it was last forgotten after
+ * the idle timeout; throughput is computed between two snapshots.
+ */
+public final class TenantSnapshot {
+
+    private final Object tenant;
+    private final int weight;
+    private final int queueDepth;
+    private final long enqueued;
+    private final long dequeued;
+
+    TenantSnapshot(Object tenant, int weight, int queueDepth, long enqueued, long dequeued) {
+        this.tenant = tenant;
+        this.weight = weight;
+        this.queueDepth = queueDepth;
+        this.enqueued = enqueued;
+        this.dequeued = dequeued;
+    }
+
+    /**
+     * @return the tenant, null for tasks scheduled without one
+     */
+    public Object getTenant() {
+        return tenant;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getEnqueued() {
+        return enqueued;
+    }
+
+    /**
+     * @return number of tasks of the tenant handed to task threads
+     */
+    public long getDequeued() {
+        return dequeued;
+    }
+}
@@ -0,0 +1,186 @@
+package assignments;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding delayed task entries until they are due. Level l has 64
+ * slots of 64^l ticks each; an entry is put on the lowest level whose range covers its delay
+ * and moves down a level each time the wheel reaches its slot, so adding an entry and taking a
+ * due one cost O(1) and an entry costs no node beyond its intrusive link. A bitmap per level
+ * lets the wheel jump over empty slots instead of visiting every tick. Not thread-safe, the runner
+ * guards it with its lock.
+ */
+final class TimingWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;// 2^36 ticks, delays beyond are cascaded again
+
+    private final long tickNanos;
+    private final long originNanos;
+    private final TaskEntry[][] heads = new TaskEntry[LEVELS][SLOTS];
+    private final TaskEntry[][] tails = new TaskEntry[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private long currentTick;// all ticks up to this one have been processed
+    private int size;
+
+    /**
+     * @param tickNanos resolution of the wheel
+     * @param originNanos System.nanoTime() at tick 0
+     */
+    TimingWheel(long tickNanos, long originNanos) {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tick must be positive");
+        }
+        this.tickNanos = tickNanos;
+        this.originNanos = originNanos;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add an entry due at entry.dueNanos
+     * @param entry entry to be added
+     * @param due receives the entry instead if it is already due
+     */
+    void add(TaskEntry entry, List<TaskEntry> due) {
+        long dueTick = -Math.floorDiv(originNanos - entry.dueNanos, tickNanos);// rounded up
+        long delta = dueTick - currentTick;
+        if (delta <= 0) {
+            due.add(entry);
+            return;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(delta)) / SLOT_BITS;
+        if (level >= LEVELS) {
+            level = LEVELS - 1;
+            dueTick = currentTick + (1L << (LEVELS * SLOT_BITS)) - 1;// comes back here when cascaded
+        }
+        int slot = (int) (dueTick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        entry.next = null;
+        if (tails[level][slot] == null) {
+            heads[level][slot] = entry;
+            occupied[level] |= 1L << slot;
+        } else {
+            tails[level][slot].next = entry;
+        }
+        tails[level][slot] = entry;
+        size++;
+    }
+
+    /**
+     * Process all ticks up to nowNanos
+     * @param nowNanos current System.nanoTime()
+     * @param due receives the entries that became due
+     */
+    void advance(long nowNanos, List<TaskEntry> due) {
+        long nowTick = Math.floorDiv(nowNanos - originNanos, tickNanos);
+        while (currentTick < nowTick) {
+            long tick = nextEventTick();
+            if (tick > nowTick) {
+                currentTick = nowTick;
+                return;
+            }
+            currentTick = tick;
+            int slot = (int) tick & (SLOTS - 1);
+            if (slot == 0) {
+                cascade(1, tick, due);
+            }
+            TaskEntry e = take(0, slot);
+            while (e != null) {
+                TaskEntry next = e.next;
+                e.next = null;
+                due.add(e);
+                e = next;
+            }
+        }
+    }
+
+    /**
+     * Remove all entries, due or not
+     * @param out receives the removed entries
+     */
+    void removeAll(List<TaskEntry> out) {
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                TaskEntry e = take(level, slot);
+                while (e != null) {
+                    TaskEntry next = e.next;
+                    e.next = null;
+                    out.add(e);
+                    e = next;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param nowNanos current System.nanoTime()
+     * @return time until advance() may find due entries, Long.MAX_VALUE if the wheel is empty
+     */
+    long nanosToNextEvent(long nowNanos) {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(originNanos + nextEventTick() * tickNanos - nowNanos, 0);
+    }
+
+    /**
+     * @return next tick that has a level 0 slot to drain or starts an occupied slot of a higher
+     * level to cascade, Long.MAX_VALUE if the wheel is empty
+     */
+    private long nextEventTick() {
+        long next = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            long bits = occupied[level];
+            if (bits == 0) {
+                continue;
+            }
+            int shift = level * SLOT_BITS;
+            long period = (currentTick + (1L << shift)) >>> shift;// first slot starting after currentTick
+            int slot = (int) period & (SLOTS - 1);
+            long ahead = bits & (-1L << slot);
+            long start = ahead != 0 ? period - slot + Long.numberOfTrailingZeros(ahead)
+                    : period - slot + SLOTS + Long.numberOfTrailingZeros(bits);
+            next = Math.min(next, start << shift);
+        }
+        return next;
+    }
+
+    /**
+     * Move the entries of the level slot reached at tick to lower levels, higher levels first
+     */
+    private void cascade(int level, long tick, List<TaskEntry> due) {
+        if (level >= LEVELS) {
+            return;
+        }
+        int slot = (int) (tick >>> (level * SLOT_BITS)) & (SLOTS - 1);
+        if (slot == 0) {
+            cascade(level + 1, tick, due);
+        }
+        TaskEntry e = take(level, slot);
+        while (e != null) {
+            TaskEntry next = e.next;
+            add(e, due);
+            e = next;
+        }
+    }
+
+    /**
+     * Remove all entries of a slot
+     * @return first entry of the removed list or null
+     */
+    private TaskEntry take(int level, int slot) {
+        TaskEntry e = heads[level][slot];
+        if (e != null) {
+            heads[level][slot] = null;
+            tails[level][slot] = null;
+            occupied[level] &= ~(1L << slot);
+            for (TaskEntry c = e; c != null; c = c.next) {
+                size--;
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,137 @@
+package assignments;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runner for tasks that block inside run(). A single dispatcher thread takes tasks in priority
+ * order and hands each one to its own virtual thread. A semaphore limits the number of tasks
+ * running at once; the dispatcher acquires a permit before it takes the next task, so the task
+ * admitted when a slot frees up is always the most urgent one queued at that moment.
+ * <p>
+ * The build targets Java 17, which has no Executors.newVirtualThreadPerTaskExecutor, so the
+ * executor is looked up by reflection. On a Java 17 runtime, which includes the tests of this
+ * repository, every task falls back to a thread from a cached pool of platform threads and
+ * only the priority order and the concurrency limit are exercised. The same classes run their
+ * tasks on virtual threads on a Java 21 or later runtime, without recompiling.
+ */
+public class VirtualThreadPriorityTaskRunner extends PriorityTaskRunner {
+
+    private final Semaphore permits;
+    private final ExecutorService executor;
+
+    /**
+     * @param maxConcurrency maximum number of tasks running at the same time
+     */
+    public VirtualThreadPriorityTaskRunner(int maxConcurrency) {
+        this(maxConcurrency, new HeapTaskQueue());
+    }
+
+    /**
+     * @param maxConcurrency maximum number of tasks running at the same time
+     * @param taskQueue queue implementation holding the scheduled tasks
+     */
+    public VirtualThreadPriorityTaskRunner(int maxConcurrency, TaskQueue taskQueue) {
+        super(1, taskQueue);
+        permits = new Semaphore(maxConcurrency);
+        executor = newVirtualThreadExecutor();
+    }
+
+    /**
+     * @return a virtual thread per task executor, or a cached platform thread pool before Java 21
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Dispatcher loop, the only task thread of this runner
+     */
+    @Override
+    public void run() {
+        taskThreadStarted();
+        while (! isStopped()) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                if (isStopped()) {
+                    break;// interrupted by stop() after its timeout
+                }
+                continue;
+            }
+            TaskEntry entry = takeTask(null);
+            if (entry == null) {
+                permits.release();
+                break;// stopped
+            }
+            executor.execute(() -> {
+                try {
+                    runTask(entry);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * Tasks do not run on the dispatcher thread, so there is no local queue to push to
+     */
+    @Override
+    public void enableWorkStealing(int inversionBound) {
+        throw new UnsupportedOperationException("work stealing needs platform task threads");
+    }
+
+    /**
+     * Tasks still running on the executor when stop() has ended the notification thread would
+     * lose their events
+     */
+    @Override
+    public void enableAsyncNotification(int ringCapacity, NotificationOverflowPolicy overflowPolicy) {
+        throw new UnsupportedOperationException("asynchronous notification needs platform task threads");
+    }
+
+    /**
+     * The number of running tasks is bounded by maxConcurrency, not by task threads
+     */
+    @Override
+    public void setThreadCount(int nThreads) {
+        throw new UnsupportedOperationException("the dispatcher is the only task thread");
+    }
+
+    /**
+     * All tasks are taken by the dispatcher, there are no task threads to group
+     */
+    @Override
+    public void enableAffinityGroups(int groups) {
+        throw new UnsupportedOperationException("affinity groups need platform task threads");
+    }
+
+    @Override
+    public void enableAdaptiveConcurrency(int minThreads, int maxThreads, long interval, TimeUnit unit) {
+        throw new UnsupportedOperationException("the dispatcher is the only task thread");
+    }
+
+    /**
+     * Wait for the tasks running on the executor, interrupting the ones still running at the end
+     * of the timeout. The journal and the notification thread stay open until they are done.
+     */
+    @Override
+    protected void awaitRunningTasks(long timeoutNanos) {
+        executor.shutdown();
+        try {
+            if (! executor.awaitTermination(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
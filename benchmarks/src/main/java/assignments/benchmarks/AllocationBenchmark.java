@@ -0,0 +1,76 @@
+package assignments.benchmarks;
+
+import assignments.PriorityTaskRunner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Steady-state scheduleTask and dispatch of reused no-op tasks with a bounded backlog, meant
+ * to be run with -prof gc: gc.alloc.rate.norm is what the runner allocates per task, on the
+ * producer and the task threads together.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AllocationBenchmark {
+
+    private static final int BACKLOG = 1024;
+
+    @Param({"heap", "primitive"})
+    public String queue;
+
+    @Param({"false", "true"})
+    public boolean pooled;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private final NoOpTask[] tasks = new NoOpTask[Runners.MAX_PRIORITY + 1];
+    private PriorityTaskRunner runner;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new NoOpTask(i, i);
+        }
+        runner = Runners.newRunner(queue, workers);
+        if (pooled) {
+            runner.enableEntryPooling(4 * BACKLOG);
+        }
+        runner.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        Runners.drain(runner);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.stop();
+    }
+
+    @Benchmark
+    public void scheduleTask() {
+        while (runner.numTasks() >= BACKLOG) {
+            Thread.onSpinWait();// keep the queue from growing, so its arrays stop growing too
+        }
+        runner.scheduleTask(tasks[next++ & Runners.MAX_PRIORITY], NoOpListener.INSTANCE);
+    }
+}
@@ -0,0 +1,70 @@
+package assignments.benchmarks;
+
+import assignments.PriorityTaskRunner;
+import assignments.Task;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Ingestion of a large batch into an unstarted runner: one scheduleTasks call against a loop
+ * of scheduleTask calls.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BatchScheduleBenchmark {
+
+    @Param({"heap", "skiplist", "bucket"})
+    public String queue;
+
+    @Param({"100000"})
+    public int batchSize;
+
+    private List<Task> tasks;
+    private PriorityTaskRunner runner;
+
+    @Setup(Level.Trial)
+    public void createTasks() {
+        Random random = new Random(42);
+        tasks = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchSize; i++) {
+            tasks.add(new NoOpTask(random.nextInt(Runners.MAX_PRIORITY + 1), i));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createRunner() {
+        runner = Runners.newRunner(queue, 1);
+    }
+
+    @Benchmark
+    public PriorityTaskRunner scheduleTasks() {
+        runner.scheduleTasks(tasks, NoOpListener.INSTANCE);
+        return runner;
+    }
+
+    @Benchmark
+    public PriorityTaskRunner scheduleTaskLoop() {
+        for (Task t : tasks) {
+            runner.scheduleTask(t, NoOpListener.INSTANCE);
+        }
+        return runner;
+    }
+}
@@ -0,0 +1,79 @@
+package assignments.benchmarks;
+
+import assignments.PriorityTaskRunner;
+import assignments.Task;
+import assignments.TaskNotificationListener;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from scheduleTask until onTaskCommence is called on a task thread, measured against an
+ * idle runner, i.e. the wake-up latency of a parked task thread.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DispatchLatencyBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class RunnerState {
+
+        @Param({"heap", "skiplist", "bucket"})
+        public String queue;
+
+        @Param({"1", "4"})
+        public int workers;
+
+        PriorityTaskRunner runner;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            runner = Runners.newRunner(queue, workers);
+            runner.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            runner.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class CommenceListener implements TaskNotificationListener {
+
+        final NoOpTask task = new NoOpTask(0, 0);
+        volatile boolean commenced;
+
+        @Override
+        public void onTaskCommence(Task t) {
+            commenced = true;
+        }
+
+        @Override
+        public void onTaskCompletion(Task t) {
+        }
+    }
+
+    @Benchmark
+    public void scheduleToCommence(RunnerState state, CommenceListener listener) {
+        listener.commenced = false;
+        state.runner.scheduleTask(listener.task, listener);
+        while (! listener.commenced) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package assignments.benchmarks;
+
+import assignments.PriorityTaskRunner;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Round trip of executeTask and of submit(...).join() for a no-op task. executeTask notifies a
+ * SampleTaskNotificationListener, System.out is discarded so printing does not dominate.
+ * Scale callers with -t.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecuteTaskBenchmark {
+
+    @Param({"heap", "skiplist"})
+    public String queue;
+
+    @Param({"1", "4"})
+    public int workers;
+
+    private final NoOpTask task = new NoOpTask(0, 0);
+    private PriorityTaskRunner runner;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        runner = Runners.newRunner(queue, workers);
+        runner.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.stop();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void executeTask() {
+        runner.executeTask(task);
+    }
+
+    @Benchmark
+    public Object submitJoin() {
+        return runner.submit(task, NoOpListener.INSTANCE).join();
+    }
+}
@@ -0,0 +1,17 @@
+package assignments.benchmarks;
+
+import assignments.Task;
+import assignments.TaskNotificationListener;
+
+public class NoOpListener implements TaskNotificationListener {
+
+    public static final NoOpListener INSTANCE = new NoOpListener();
+
+    @Override
+    public void onTaskCommence(Task t) {
+    }
+
+    @Override
+    public void onTaskCompletion(Task t) {
+    }
+}
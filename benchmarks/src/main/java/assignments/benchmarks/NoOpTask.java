@@ -0,0 +1,35 @@
+package assignments.benchmarks;
+
+import assignments.Task;
+
+/**
+ * Task with an empty body, so benchmarks measure the runner and not the task.
+ */
+public class NoOpTask implements Task {
+    private final int priority;
+    private final int id;
+
+    public NoOpTask(int priority, int id) {
+        this.priority = priority;
+        this.id = id;
+    }
+
+    @Override
+    public int getPriority() {
+        return priority;
+    }
+
+    @Override
+    public int getId() {
+        return id;
+    }
+
+    @Override
+    public void run() {
+    }
+
+    @Override
+    public int compareTo(Task o) {
+        return Integer.compare(this.priority, o.getPriority());
+    }
+}
@@ -0,0 +1,48 @@
+package assignments.benchmarks;
+
+import assignments.BucketTaskQueue;
+import assignments.HeapTaskQueue;
+import assignments.PrimitiveHeapTaskQueue;
+import assignments.PriorityTaskRunner;
+import assignments.SkipListTaskQueue;
+import assignments.TaskQueue;
+
+/**
+ * Builds runners for the queue implementations compared by the benchmarks.
+ * Priorities used by the benchmarks are in [0, 255].
+ */
+final class Runners {
+
+    static final int MAX_PRIORITY = 255;
+
+    private Runners() {
+    }
+
+    static TaskQueue newQueue(String queue) {
+        switch (queue) {
+            case "heap":
+                return new HeapTaskQueue();
+            case "skiplist":
+                return new SkipListTaskQueue();
+            case "bucket":
+                return new BucketTaskQueue(0, MAX_PRIORITY);
+            case "primitive":
+                return new PrimitiveHeapTaskQueue();
+            default:
+                throw new IllegalArgumentException("unknown queue " + queue);
+        }
+    }
+
+    static PriorityTaskRunner newRunner(String queue, int workers) {
+        return new PriorityTaskRunner(workers, newQueue(queue));
+    }
+
+    /**
+     * Wait until the task threads have taken every queued task
+     */
+    static void drain(PriorityTaskRunner runner) {
+        while (runner.numTasks() > 0) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package assignments.benchmarks;
+
+import assignments.PriorityTaskRunner;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * scheduleTask throughput against a started runner whose task threads consume no-op tasks.
+ * Scale producers with -t and task threads with -p workers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScheduleBenchmark {
+
+    @Param({"heap", "skiplist", "bucket"})
+    public String queue;
+
+    @Param({"1", "4", "16"})
+    public int workers;
+
+    private PriorityTaskRunner runner;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        runner = Runners.newRunner(queue, workers);
+        runner.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        Runners.drain(runner);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        runner.stop();
+    }
+
+    @Benchmark
+    public void scheduleTask() {
+        int priority = ThreadLocalRandom.current().nextInt(Runners.MAX_PRIORITY + 1);
+        runner.scheduleTask(new NoOpTask(priority, priority), NoOpListener.INSTANCE);
+    }
+}